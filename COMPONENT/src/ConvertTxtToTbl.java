@@ -5,131 +5,89 @@
   is delimited by tabs ("\t")
 */
 
-import qp.utils.Attribute;
+import qp.utils.Batch;
+import qp.utils.PageLayout;
 import qp.utils.Schema;
-import qp.utils.Tuple;
+import qp.utils.TableLoader;
+import qp.utils.TableWriter;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.StringTokenizer;
 
 public class ConvertTxtToTbl {
 
+    static final int DEFAULT_PAGE_SIZE = 4096;
+
+    static int layout = PageLayout.ROW;
+
     public static void main(String[] args) throws IOException {
         // check the arguments
-        if (args.length != 1) {
-            System.out.println("usage: java ConvertTxtToTbl <tablename> \n creates <tablename>.tbl files");
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("usage: java ConvertTxtToTbl <tablename> [pagesize] [ROW|PAX|COMPRESSED] \n creates <tablename>.tbl and .xstat files, and .stat if there is none");
             System.exit(1);
         }
 
-        if (args[0].compareTo("ALL") == 0) {
+        /** the table file is organised in pages of this many bytes **/
+        int pagesize = DEFAULT_PAGE_SIZE;
+        if (args.length >= 2) {
+            pagesize = Integer.parseInt(args[1]);
+        }
+        Batch.setPageSize(pagesize);
+
+        /** ROW pages store whole tuples, PAX pages group the values of each attribute,
+         ** COMPRESSED pages encode the values of each attribute **/
+        if (args.length == 3) {
+            if (args[2].equalsIgnoreCase("PAX")) {
+                layout = PageLayout.PAX;
+            } else if (args[2].equalsIgnoreCase("COMPRESSED")) {
+                layout = PageLayout.COMPRESSED;
+            } else if (!args[2].equalsIgnoreCase("ROW")) {
+                System.out.println("unknown page layout " + args[2]);
+                System.exit(1);
+            }
+        }
 
+        if (args[0].compareTo("ALL") == 0) {
             String[] tbls = {"FLIGHTS", "AIRCRAFTS", "SCHEDULE", "CERTIFIED", "EMPLOYEES"};
-
             for (String s : tbls) {
-                String tblname = s;
-                String mdfile = tblname + ".md";
-                String tblfile = tblname + ".tbl";
-
-                /** open the input and output streams **/
-                BufferedReader in = new BufferedReader(new FileReader(tblname + ".txt"));
-                ObjectOutputStream outtbl = new ObjectOutputStream(new FileOutputStream(tblfile));
-
-                /** First Line is METADATA **/
-                int linenum = 0;
-                String line;
-                Schema schema = null;
-                try {
-                    ObjectInputStream ins = new ObjectInputStream(new FileInputStream(mdfile));
-                    schema = (Schema) ins.readObject();
-                } catch (ClassNotFoundException ce) {
-                    System.out.println("class not found exception --- error in schema object file");
-                    System.exit(1);
-                }
-
-                boolean flag = false;
-                StringTokenizer tokenizer;
-                while ((line = in.readLine()) != null) {
-                    linenum++;
-                    tokenizer = new StringTokenizer(line);
-
-                    ArrayList<Object> data = new ArrayList<>();
-                    int attrIndex = 0;
-
-                    while (tokenizer.hasMoreElements()) {
-                        String dataElement = tokenizer.nextToken();
-                        int datatype = schema.typeOf(attrIndex);
-                        if (datatype == Attribute.INT) {
-                            data.add(Integer.valueOf(dataElement));
-                        } else if (datatype == Attribute.REAL) {
-                            data.add(Float.valueOf(dataElement));
-                        } else if (datatype == Attribute.STRING) {
-                            data.add(dataElement);
-                        } else {
-                            System.err.println("Invalid data type");
-                            System.exit(1);
-                        }
-                        attrIndex++;
-                    }
-                    Tuple tuple = new Tuple(data);
-                    outtbl.writeObject(tuple);
-                }
-                outtbl.close();
-                in.close();
+                convert(s);
             }
-
+        } else {
+            convert(args[0]);
         }
-        else {
-            String tblname = args[0];
-            String mdfile = tblname + ".md";
-            String tblfile = tblname + ".tbl";
-
-            /** open the input and output streams **/
-            BufferedReader in = new BufferedReader(new FileReader(tblname + ".txt"));
-            ObjectOutputStream outtbl = new ObjectOutputStream(new FileOutputStream(tblfile));
-
-            /** First Line is METADATA **/
-            int linenum = 0;
-            String line;
-            Schema schema = null;
-            try {
-                ObjectInputStream ins = new ObjectInputStream(new FileInputStream(mdfile));
-                schema = (Schema) ins.readObject();
-            } catch (ClassNotFoundException ce) {
-                System.out.println("class not found exception --- error in schema object file");
-                System.exit(1);
-            }
-
-            boolean flag = false;
-            StringTokenizer tokenizer;
-            while ((line = in.readLine()) != null) {
-                linenum++;
-                tokenizer = new StringTokenizer(line);
+    }
 
-                ArrayList<Object> data = new ArrayList<>();
-                int attrIndex = 0;
+    /**
+     * Reads <tblname>.txt and writes the tuples into the paged file <tblname>.tbl,
+     * and its statistics into <tblname>.xstat, and <tblname>.stat if there is none
+     **/
+    private static void convert(String tblname) throws IOException {
+        String mdfile = tblname + ".md";
+        String tblfile = tblname + ".tbl";
+
+        /** First Line is METADATA **/
+        Schema schema = null;
+        try {
+            ObjectInputStream ins = new ObjectInputStream(new FileInputStream(mdfile));
+            schema = (Schema) ins.readObject();
+            ins.close();
+        } catch (ClassNotFoundException ce) {
+            System.out.println("class not found exception --- error in schema object file");
+            System.exit(1);
+        }
 
-                while (tokenizer.hasMoreElements()) {
-                    String dataElement = tokenizer.nextToken();
-                    int datatype = schema.typeOf(attrIndex);
-                    if (datatype == Attribute.INT) {
-                        data.add(Integer.valueOf(dataElement));
-                    } else if (datatype == Attribute.REAL) {
-                        data.add(Float.valueOf(dataElement));
-                    } else if (datatype == Attribute.STRING) {
-                        data.add(dataElement);
-                    } else {
-                        System.err.println("Invalid data type");
-                        System.exit(1);
-                    }
-                    attrIndex++;
-                }
-                Tuple tuple = new Tuple(data);
-                outtbl.writeObject(tuple);
-            }
-            outtbl.close();
-            in.close();
+        /** the lines are parsed in parallel and written in file order **/
+        TableWriter outtbl = new TableWriter(tblfile, schema, Batch.getPageSize(), layout);
+        if (!outtbl.open()) {
+            System.exit(1);
         }
+        TableLoader loader = new TableLoader(schema);
+        if (!loader.load(tblname + ".txt", outtbl)) {
+            System.exit(1);
+        }
+        outtbl.close();
+
+        /** statistics for the optimizer, gathered while loading **/
+        loader.getStats().write(tblname, schema);
     }
 
 }
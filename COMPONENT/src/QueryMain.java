@@ -3,9 +3,11 @@
  **/
 
 import qp.operators.Debug;
+import qp.operators.HashJoin;
 import qp.operators.Operator;
 import qp.optimizer.BufferManager;
 import qp.optimizer.PlanCost;
+import qp.optimizer.RandomInitialPlan;
 import qp.optimizer.RandomOptimizer;
 import qp.parser.Scaner;
 import qp.parser.parser;
@@ -27,9 +29,23 @@ public class QueryMain {
 
         BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
         Batch.setPageSize(getPageSize(args, in));
+        Batch.setVectorSize(Integer.getInteger("vectorsize", 0));
 
         SQLQuery sqlquery = getSQLQuery(args[0]);
-        numBuffs = configureBufferManager(sqlquery.getNumJoin(), args, in);
+        BufferManager.setPrefetchDepth(Integer.getInteger("prefetch", 0));
+        WriteBehind.setEnabled(Boolean.getBoolean("writebehind"));
+        SharedScans.setEnabled(Boolean.getBoolean("sharedscans"));
+        VectorBatch.setEnabled(Boolean.getBoolean("vectorized"));
+        BatchPool.setEnabled(Boolean.getBoolean("batchpool"));
+        BatchPool.setDebug(Boolean.getBoolean("batchdebug"));
+        RowFetcher.setEnabled(Boolean.getBoolean("latematerialization"));
+        BloomFilter.setEnabled(Boolean.getBoolean("bloomfilter"));
+        HashJoin.setParallelism(Integer.getInteger("jointhreads", 1));
+        if (!BufferManager.setReplacementPolicy(System.getProperty("bufferpool"))) {
+            System.out.println("unknown buffer pool policy, use -Dbufferpool=clock, lruk or 2q");
+            System.exit(1);
+        }
+        numBuffs = configureBufferManager(sqlquery, args, in);
 
         Operator root = getQueryPlan(sqlquery);
         printFinalPlan(root, args, in);
@@ -98,9 +114,16 @@ public class QueryMain {
 
     /**
      * If there are joins then assigns buffers to each join operator while preparing the plan.
+     * Join conditions between tables already joined by another one share its operator.
      * As buffer manager is not implemented, just input the number of buffers available.
+     * With -Dprefetch=N every table scan may read N pages ahead, these pages are
+     * taken from the buffers available before they are divided among the joins.
+     * With -Dbufferpool=clock, lruk or 2q the pages of the files read and written by
+     * the query are cached in a buffer pool of that many frames.
      **/
-    private static int configureBufferManager(int numJoin, String[] args, BufferedReader in) {
+    private static int configureBufferManager(SQLQuery sqlquery, String[] args, BufferedReader in) {
+        int numJoin = new RandomInitialPlan(sqlquery).getNumJoins();
+        int numReaders = sqlquery.getFromList().size();
         if (numJoin != 0) {
             int numBuff = 1000;
             if (args.length < 4) {
@@ -114,7 +137,9 @@ public class QueryMain {
             } else {
                 numBuff = Integer.parseInt(args[3]);
             }
-            BufferManager bm = new BufferManager(numBuff, numJoin);
+            BufferManager bm = new BufferManager(numBuff, numJoin, numReaders);
+        } else if (args.length >= 4) {
+            BufferManager bm = new BufferManager(Integer.parseInt(args[3]), 0, numReaders);
         }
 
         /** Check the number of buffers available is enough or not **/
@@ -196,13 +221,19 @@ public class QueryMain {
             for (int i = 0; i < resultbatch.size(); ++i) {
                 printTuple(resultbatch.get(i));
             }
+            resultbatch.release();
         }
         root.close();
+        RowFetcher.closeAll();
         out.close();
 
         long endtime = System.currentTimeMillis();
         double executiontime = (endtime - starttime) / 1000.0;
         System.out.println("Execution time = " + executiontime);
+        BufferPool pool = BufferManager.getBufferPool();
+        if (pool != null) {
+            System.out.printf("Buffer pool: %d hits, %d misses\n", pool.getHits(), pool.getMisses());
+        }
         return executiontime;
     }
 
@@ -3,8 +3,11 @@ package qp.operators;
 import qp.optimizer.BufferManager;
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.BatchCodec;
+import qp.utils.BatchPool;
 import qp.utils.Condition;
 import qp.utils.Tuple;
+import qp.utils.VectorBatch;
 
 import java.io.*;
 import java.util.ArrayList;
@@ -15,15 +18,22 @@ public class BlockNestedLoop extends Join {
     static int filenum = 0;         // To get unique filenum for this operation
     int batchsize;                  // Number of tuples per out batch
     int blockSize;
-    int leftindex;                  // Indices of the join attributes in left table
-    int rightindex;                 // Indices of the join attributes in right table
+    int[] leftindex;                // Indices of the join attributes in left table
+    int[] rightindex;               // Indices of the join attributes in right table
     String rfname;                  // The file name where the right table is materialized
     String prefix = "BNJtemp-";     // The start name of file to be deleted
     Batch outbatch;                 // Buffer page for output
     List<Batch> leftbatch;          // Buffer page for left input stream
     List<Tuple> lTuplesInCurrBlk;   //Tuples inside block
+    VectorBatch[] lVecs;            // Vector page of each tuple of the block, null unless the key is read from the vectors
+    int[] lRows;                    // Row of each tuple of the block in its vector page
+    int[] lKeys;                    // INT join attributes of each tuple of the block, one after another
+    boolean[] lNulls;               // Whether a join attribute of each tuple of the block is null
     Batch rightbatch;               // Buffer page for right input stream
-    ObjectInputStream in;           // File pointer to the right hand materialized file
+    DataInputStream in;             // File pointer to the right hand materialized file
+    BatchCodec codec;               // Encoding of the right hand materialized file
+    BatchPool pool;                 // Output pages, reused once released by the consumer
+    BatchPool rightPool;            // Pages read from the right hand materialized file
 
     int lcurs;                      // Cursor for left side buffer
     int rcurs;                      // Cursor for right side buffer
@@ -31,7 +41,7 @@ public class BlockNestedLoop extends Join {
     boolean eosr;                   // Whether end of stream (right table) is reached
 
     public BlockNestedLoop(Join jn) {
-        super(jn.getLeft(), jn.getRight(), jn.getCondition(), jn.getOpType());
+        super(jn.getLeft(), jn.getRight(), jn.getConditionList(), jn.getOpType());
         schema = jn.getSchema();
         jointype = jn.getJoinType();
         numBuff = BufferManager.getBuffersPerJoin();
@@ -55,14 +65,21 @@ public class BlockNestedLoop extends Join {
     public boolean open() {
         /** select number of tuples per batch **/
         int tuplesize = schema.getTupleSize();
-        batchsize = Batch.getPageSize() / tuplesize;
+        batchsize = Batch.getVectorCapacity(tuplesize);
+        pool = new BatchPool(() -> new Batch(batchsize));
+        rightPool = new BatchPool(() -> new Batch(0));
+        leftbatch = null;
+        rightbatch = null;
 
         /** find indices attributes of join conditions **/
-        for (Condition con : conditionList) {
+        leftindex = new int[conditionList.size()];
+        rightindex = new int[conditionList.size()];
+        for (int k = 0; k < conditionList.size(); ++k) {
+            Condition con = conditionList.get(k);
             Attribute leftattr = con.getLhs();
             Attribute rightattr = (Attribute) con.getRhs();
-            leftindex = left.getSchema().indexOf(leftattr);
-            rightindex = right.getSchema().indexOf(rightattr);
+            leftindex[k] = left.getSchema().indexOf(leftattr);
+            rightindex[k] = right.getSchema().indexOf(rightattr);
         }
         Batch rightpage;
 
@@ -87,10 +104,12 @@ public class BlockNestedLoop extends Join {
              **/
             filenum++;
             rfname = "BNJtemp-" + filenum;
+            codec = new BatchCodec(right.getSchema());
             try {
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfname));
+                DataOutputStream out = BatchCodec.openOutput(rfname);
                 while ((rightpage = right.next()) != null) {
-                    out.writeObject(rightpage);
+                    codec.write(rightpage, out);
+                    rightpage.release();
                 }
                 out.close();
             } catch (IOException io) {
@@ -116,29 +135,33 @@ public class BlockNestedLoop extends Join {
         if (eosl) {
             return null;
         }
-        outbatch = new Batch(batchsize);
+        outbatch = pool.acquire();
         Batch newLeft;
 
         while (!outbatch.isFull()) {
             if (lcurs == 0 && eosr == true) {
-                /** new left block is to be fetched**/
+                /** new left block is to be fetched, the pages of the previous one are given back **/
+                releaseBlock();
                 leftbatch = new ArrayList<>();
 
-                i = 0;
-                while(i < batchsize){
-                    newLeft = left.next();
-                    if(newLeft != null){
-                        leftbatch.add(newLeft);
-                    }
-                    i = i + 1;
+                /** the block takes blockSize pages worth of left tuples,
+                 ** however many tuples the batches of the left input hold
+                 **/
+                int blockTuples = Math.max(1, blockSize) * Batch.getPageCapacity(left.getSchema().getTupleSize());
+                int numTuples = 0;
+                while (numTuples < blockTuples && (newLeft = left.next()) != null) {
+                    leftbatch.add(newLeft);
+                    numTuples += newLeft.size();
                 }
 
                 lTuplesInCurrBlk = new ArrayList<>();
-                for(Batch page : leftbatch){
-                    i = 0;
-                    while(i < page.size()){
-                        lTuplesInCurrBlk.add(page.get(i));
-                        i++;
+                if (!readKeys()) {
+                    for (Batch page : leftbatch) {
+                        i = 0;
+                        while (i < page.size()) {
+                            lTuplesInCurrBlk.add(page.get(i));
+                            i++;
+                        }
                     }
                 }
 
@@ -151,7 +174,7 @@ public class BlockNestedLoop extends Join {
                  ** scanning of right table
                  **/
                 try {
-                    in = new ObjectInputStream(new FileInputStream(rfname));
+                    in = BatchCodec.openInput(rfname);
                     eosr = false;
                 } catch (IOException io) {
                     System.err.println("BlockNestedJoin:error in reading the file");
@@ -162,14 +185,15 @@ public class BlockNestedLoop extends Join {
             while (eosr == false) {
                 try {
                     if (rcurs == 0 && lcurs == 0) {
-                        rightbatch = (Batch) in.readObject();
+                        if (rightbatch != null) rightbatch.release();
+                        rightbatch = null;
+                        rightbatch = codec.read(in, rightPool);
                     }
                     for (i = lcurs; i < lTuplesInCurrBlk.size(); ++i) {
                         for (j = rcurs; j < rightbatch.size(); ++j) {
-                            Tuple lefttuple = lTuplesInCurrBlk.get(i);
                             Tuple righttuple = rightbatch.get(j);
-                            if (lefttuple.checkJoin(righttuple, leftindex, rightindex)) {
-                                Tuple outtuple = lefttuple.joinWith(righttuple);
+                            if (checkJoin(i, righttuple)) {
+                                Tuple outtuple = leftTuple(i).joinWith(righttuple);
                                 outbatch.add(outtuple);
                                 if (outbatch.isFull()) {
                                     if (i == lTuplesInCurrBlk.size() - 1 && j == rightbatch.size() - 1) {  //case 1
@@ -199,9 +223,6 @@ public class BlockNestedLoop extends Join {
                         System.out.println("BlockNestedJoin: Error in reading temporary file");
                     }
                     eosr = true;
-                } catch (ClassNotFoundException c) {
-                    System.out.println("BlockNestedJoin: Error in deserialising temporary file ");
-                    System.exit(1);
                 } catch (IOException io) {
                     System.out.println("BlockNestedJoin: Error in reading temporary file");
                     System.exit(1);
@@ -211,10 +232,93 @@ public class BlockNestedLoop extends Join {
         return outbatch;
     }
 
+    /**
+     * Releases the pages of the current left block
+     **/
+    private void releaseBlock() {
+        if (leftbatch == null) return;
+        for (Batch page : leftbatch) {
+            page.release();
+        }
+        leftbatch = null;
+        lVecs = null;
+    }
+
+    /**
+     * If every page of the new block is a vector batch and the join attributes
+     * * are INT, reads the keys of the block into an array and leaves the tuples
+     * * unbuilt until they join, so that a left tuple is only created when it is output
+     **/
+    private boolean readKeys() {
+        lVecs = null;
+        int count = 0;
+        for (Batch page : leftbatch) {
+            if (!(page instanceof VectorBatch)) {
+                return false;
+            }
+            for (int index : leftindex) {
+                if (((VectorBatch) page).typeOf(index) != Attribute.INT) return false;
+            }
+            count += page.size();
+        }
+        lVecs = new VectorBatch[count];
+        lRows = new int[count];
+        int numKeys = leftindex.length;
+        lKeys = new int[count * numKeys];
+        lNulls = new boolean[count];
+        int k = 0;
+        for (Batch page : leftbatch) {
+            VectorBatch vec = (VectorBatch) page;
+            for (int j = 0; j < vec.size(); ++j, ++k) {
+                int row = vec.position(j);
+                lVecs[k] = vec;
+                lRows[k] = row;
+                for (int c = 0; c < numKeys; ++c) {
+                    if (vec.isNull(row, leftindex[c])) {
+                        lNulls[k] = true;
+                    } else {
+                        lKeys[k * numKeys + c] = vec.getInt(row, leftindex[c]);
+                    }
+                }
+                lTuplesInCurrBlk.add(null);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the ith tuple of the block joins with the right tuple
+     **/
+    private boolean checkJoin(int i, Tuple righttuple) {
+        if (lVecs == null) {
+            return lTuplesInCurrBlk.get(i).checkJoin(righttuple, leftindex, rightindex);
+        }
+        if (lNulls[i]) return false;
+        int numKeys = rightindex.length;
+        for (int c = 0; c < numKeys; ++c) {
+            Object key = righttuple.dataAt(rightindex[c]);
+            if (!(key instanceof Integer) || (Integer) key != lKeys[i * numKeys + c]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The ith tuple of the block, built from its vector page when first needed
+     **/
+    private Tuple leftTuple(int i) {
+        Tuple t = lTuplesInCurrBlk.get(i);
+        if (t == null) {
+            t = lVecs[i].getRow(lRows[i]);
+            lTuplesInCurrBlk.set(i, t);
+        }
+        return t;
+    }
+
     /**
      * Close the operator
      */
     public boolean close() {
+        releaseBlock();
         File f = new File(rfname);
         f.delete();
         return true;
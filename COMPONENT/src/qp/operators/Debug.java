@@ -6,6 +6,8 @@ package qp.operators;
 
 import qp.utils.*;
 
+import java.util.ArrayList;
+
 public class Debug {
 
     /**
@@ -95,10 +97,17 @@ public class Debug {
                 case JoinType.HASHJOIN:
                     System.out.print("HashJoin(");
                     break;
+                case JoinType.HYBRIDHASH:
+                    System.out.print("HybridHashJoin(");
+                    break;
             }
             PPrint(((Join) node).getLeft());
             System.out.print("  [");
-            PPrint(((Join) node).getCondition());
+            ArrayList<Condition> conditions = ((Join) node).getConditionList();
+            for (int i = 0; i < conditions.size(); ++i) {
+                if (i > 0) System.out.print(" AND ");
+                PPrint(conditions.get(i));
+            }
             System.out.print("]  ");
             PPrint(((Join) node).getRight());
             System.out.print(")");
@@ -67,7 +67,7 @@ public class Distinct extends Operator {
     public boolean open() {
         /** set number of tuples per batch **/
         int tuplesize = schema.getTupleSize();
-        batchsize = Batch.getPageSize() / tuplesize;
+        batchsize = Batch.getVectorCapacity(tuplesize);
 
         return base.open();
     }
@@ -99,6 +99,7 @@ public class Distinct extends Operator {
             }
             curr++;
         }
+        inbatch.release();
 
         base.open();
 
@@ -124,6 +125,7 @@ public class Distinct extends Operator {
                     }
                 }
             }
+            newInBatch.release();
             newInBatch = base.next();
             newCount++;
         }
@@ -132,6 +134,7 @@ public class Distinct extends Operator {
         newCount = 0;
         while (newCount < count) {
             newInBatch = base.next();
+            if (newInBatch != null) newInBatch.release();
             newCount++;
         }
 
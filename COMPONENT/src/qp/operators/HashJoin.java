@@ -2,215 +2,853 @@ package qp.operators;
 
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.BatchCodec;
+import qp.utils.BatchPool;
+import qp.utils.BloomFilter;
 import qp.utils.Condition;
+import qp.utils.IntHashTable;
+import qp.utils.Schema;
 import qp.utils.Tuple;
 
 import java.io.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Partitioned (Grace) hash join, the right input being the build side.
+ * * Both inputs are hashed into numBuff-1 partition files and the pairs are
+ * * joined one at a time, a build partition too large for the table being
+ * * partitioned again, or joined a chunk at a time if that does not help.
+ * * As JoinType.HYBRIDHASH the right partitions that fit stay in memory and
+ * * the left input is joined with them on the fly. With a parallelism above
+ * * 1 worker threads join the pairs and next() takes their output pages from
+ * * a bounded queue.
+ **/
 public class HashJoin extends Join {
-    int batchSize;          // Number of tuple in each outbatch
-
-    int leftIndex;          // Index of the join att in left table
-    int rightIndex;         // Index of the join att in right table
-
-    String tempRFileName;  // File name where right table materialized
-    static int filenum;     // Unique file number for the operation
 
-    Batch outbatch;         // Buffer page for output
+    static final int MAX_DEPTH = 4;  // Times a partition pair is partitioned again at most
 
-    int lcurs;              // Left table cur
-    int rcurs;              // Right table cur
-    int kcurs;              // Cursor for list containing search keys
+    static int parallelism = 1;      // Worker threads joining the partition pairs, 1 for none
 
-    boolean eosl;           // Check if left table has been partitioned
-    boolean eosr;           // Check if right table has been partitioned
-    boolean checkKeySet;    // Check if keyset has been gotten during probing
-    boolean checkHashJoin;  // Check if HashJoin is completed
-    boolean build;          // Check if there is a need to partition again
-
-    HashMap<Object, ArrayList<Tuple>> leftHashTable;
-    HashMap<Object, ArrayList<Tuple>> rightHashTable;
-    HashMap<Object, ArrayList<Tuple>> probingHashTable;
+    /** Set the number of threads that join the partition pairs of a hash join **/
+    public static void setParallelism(int threads) {
+        parallelism = Math.max(1, threads);
+    }
 
-    Partition leftHasher;
-    Partition rightHasher;
+    public static int getParallelism() {
+        return parallelism;
+    }
 
-    List<Object> searchKeyList;
+    static final Object END = new Object();  // Marks the end of the output in the queue
+
+    static int filenum;             // Unique file number for the operation
+    String prefix;                  // Start of the names of the partition files
+    int splits;                     // Number of partition pairs split again
+
+    int batchSize;                  // Number of tuples in each outbatch
+    int capacity;                   // Number of build tuples the hash table may hold
+    int[] leftIndices;              // Indices of the join atts in left table
+    int[] rightIndices;             // Indices of the join atts in right table
+
+    BatchCodec leftCodec;           // Encoding of the left (probe) partitions
+    BatchCodec rightCodec;          // Encoding of the right (build) partitions
+    BatchPool pool;                 // Output pages, reused once released by the consumer
+    BatchPool probePool;            // Pages read from the probe partitions
+    Batch outbatch;                 // Buffer page for output
+
+    ArrayDeque<Pair> pairs;         // Partition pairs still to be joined
+    List<String> files;             // Every partition file created, shared with the workers
+    Pair current;                   // Partition pair being joined, null before the first
+    HashMap<Object, ArrayList<Tuple>> table;  // Build tuples of the current chunk by join key
+    IntHashTable intTable;          // Used instead of table for numeric or several join attributes, else null
+    boolean hashKeys;               // Whether intTable is keyed by the hash of several join attributes
+
+    DataInputStream buildIn;        // Build partition, null once fully loaded
+    Batch buildBatch;               // Page of the build partition being loaded
+    int buildCurs;                  // Cursor in buildBatch
+    DataInputStream probeIn;        // Probe partition, null when not being read
+    Batch probeBatch;               // Page of the probe partition being probed
+    int probeCurs;                  // Cursor in probeBatch
+    Tuple probeTuple;               // Probe tuple whose matches are being output
+    ArrayList<Tuple> matches;       // Build tuples matching probeTuple
+    int matchCurs;                  // Cursor in matches
+    int matchEntry;                 // Next entry of intTable matching probeTuple, -1 if none
+    boolean eos;                    // Whether every pair has been joined
+
+    Partition buildPart;            // Hybrid: partitions of the right input
+    Partition probePart;            // Hybrid: partitions of the left input
+    boolean[] resident;             // Hybrid: whether each partition of the right input is in the table
+    boolean probing;                // Hybrid: whether the left input is being joined with the table
+
+    int[] buildHashes;              // Key hash codes of the build tuples, null unless a Bloom filter is built
+    int numBuildHashes;             // Number of hash codes in buildHashes
+    BloomFilter bloom;              // Bloom filter of the build keys, null if none
+    boolean bloomPushed;            // Whether a scan of the left input applies the Bloom filter
+
+    int numWorkers;                 // Parallel: number of worker threads, 1 if the pairs are joined by next()
+    int workerPages;                // Parallel: number of pages of the table of a worker
+    int workerCapacity;             // Parallel: number of build tuples the table of a worker may hold
+    ForkJoinPool workers;           // Parallel: threads joining the pairs, null until they are started
+    ArrayBlockingQueue<Object> results;  // Parallel: output pages, END or the failure of a worker
+    volatile boolean stopped;       // Parallel: set by close() to stop the workers
+
+    /**
+     * A build partition and the probe partition of the same hash values
+     **/
+    static class Pair {
+        final String buildFile;
+        final String probeFile;
+        final long buildCount;
+        final long probeCount;
+        final int depth;            // Times the tuples have been partitioned again
+        final boolean splittable;   // Whether partitioning again may make it smaller
+
+        Pair(String buildFile, String probeFile, long buildCount, long probeCount, int depth, boolean splittable) {
+            this.buildFile = buildFile;
+            this.probeFile = probeFile;
+            this.buildCount = buildCount;
+            this.probeCount = probeCount;
+            this.depth = depth;
+            this.splittable = splittable;
+        }
+    }
 
     public HashJoin(Join jn){
-        super(jn.getLeft(), jn.getRight(), jn.getCondition(), jn.getOpType());
+        super(jn.getLeft(), jn.getRight(), jn.getConditionList(), jn.getOpType());
         schema = jn.getSchema();
         jointype = jn.getJoinType();
         numBuff = jn.getNumBuff();
     }
 
+    /**
+     * Finds the index of the join attributes and partitions
+     * * the right input, then the left one
+     **/
     public boolean open(){
         int tupleSize = schema.getTupleSize();
-        batchSize = Batch.getPageSize() / tupleSize;
-
-        for (Condition con : conditionList) {
+        batchSize = Batch.getVectorCapacity(tupleSize);
+        pool = new BatchPool(() -> new Batch(batchSize));
+        probePool = new BatchPool(() -> new Batch(0));
+        capacity = Math.max(1, numBuff - 2) * Batch.getPageCapacity(right.getSchema().getTupleSize());
+
+        leftIndices = new int[conditionList.size()];
+        rightIndices = new int[conditionList.size()];
+        for (int i = 0; i < conditionList.size(); ++i) {
+            Condition con = conditionList.get(i);
             Attribute leftattr = con.getLhs();
             Attribute rightattr = (Attribute) con.getRhs();
-            leftIndex = left.getSchema().indexOf(leftattr);
-            rightIndex = right.getSchema().indexOf(rightattr);
+            leftIndices[i] = left.getSchema().indexOf(leftattr);
+            rightIndices[i] = right.getSchema().indexOf(rightattr);
         }
+        leftCodec = new BatchCodec(left.getSchema());
+        rightCodec = new BatchCodec(right.getSchema());
+
+        pairs = new ArrayDeque<>();
+        files = Collections.synchronizedList(new ArrayList<>());
+        table = new HashMap<>();
+        intTable = null;
+        hashKeys = leftIndices.length > 1;
+        if (hashKeys || IntHashTable.supports(left.getSchema().typeOf(leftIndices[0]),
+                right.getSchema().typeOf(rightIndices[0]))) {
+            intTable = new IntHashTable(capacity);
+        }
+        matchEntry = -1;
+        current = null;
+        buildIn = null;
+        buildBatch = null;
+        probeIn = null;
+        probeBatch = null;
+        matches = null;
+        eos = false;
+        splits = 0;
+        probing = false;
+        buildHashes = BloomFilter.isEnabled() ? new int[1024] : null;
+        numBuildHashes = 0;
+        bloom = null;
+        bloomPushed = false;
+        /** each worker has a probe page, an output page, a queue page and a part of the rest for its table **/
+        numWorkers = Math.max(1, Math.min(parallelism, numBuff / 4));
+        workerPages = Math.max(1, (numBuff - 3 * numWorkers) / numWorkers);
+        workerCapacity = workerPages * Batch.getPageCapacity(right.getSchema().getTupleSize());
+        workers = null;
+        results = null;
+        stopped = false;
+
+        filenum++;
+        prefix = "HJtemp-" + filenum;
+        if (jointype == JoinType.HYBRIDHASH) {
+            try {
+                return openHybrid();
+            } catch (IOException io) {
+                System.out.println("HashJoin: Error writing partition files");
+                return false;
+            }
+        }
+        int numParts = Math.max(2, numBuff - 1);
+        Partition build;
+        Partition probe;
+        try {
+            build = partition(right, rightIndices, prefix + "-R", numParts, 0);
+            if (build != null) makeFilter();
+            probe = partition(left, leftIndices, prefix + "-L", numParts, 0);
+        } catch (IOException io) {
+            System.out.println("HashJoin: Error writing partition files");
+            return false;
+        }
+        if (build == null || probe == null)
+            return false;
+        addPairs(build, probe, 0, Long.MAX_VALUE, pairs);
+        return true;
+    }
+
+    /**
+     * Loads the right input into the table, spilling partitions that do not
+     * * fit, and opens the left input to be joined with it
+     **/
+    private boolean openHybrid() throws IOException {
+        int numParts = Math.max(2, (numBuff - 1) / 2);
+        int pagecapacity = Batch.getPageCapacity(right.getSchema().getTupleSize());
+        if (!right.open())
+            return false;
+        buildPart = new Partition(prefix + "-R", numParts, right.getSchema(), rightIndices, 0);
+        probePart = new Partition(prefix + "-L", numParts, left.getSchema(), leftIndices, 0);
+        for (int p = 0; p < numParts; ++p) {
+            files.add(buildPart.getFile(p));
+            files.add(probePart.getFile(p));
+        }
+        resident = new boolean[numParts];
+        Arrays.fill(resident, true);
+        int spilled = 0;
+        long inMemory = 0;
+        Batch page;
+        while ((page = right.next()) != null) {
+            for (int i = 0; i < page.size(); ++i) {
+                Tuple tuple = page.get(i);
+                if (Partition.hasNullKey(tuple, rightIndices)) continue;
+                noteBuildKey(tuple);
+                if (!resident[Partition.partitionOf(Partition.hashOf(tuple, rightIndices), 0, numParts)]) {
+                    buildPart.add(tuple);
+                    continue;
+                }
+                insert(tuple);
+                inMemory++;
+                /** one page reads the input, one is the output page of each spilled partition **/
+                while (spilled < numParts && inMemory > (long) (numBuff - 1 - spilled) * pagecapacity) {
+                    inMemory -= spill(numParts - 1 - spilled, numParts);
+                    spilled++;
+                }
+            }
+            page.release();
+        }
+        buildPart.close();
+        if (!right.close())
+            return false;
+        makeFilter();
+        probing = true;
+        return left.open();
+    }
+
+    /**
+     * Writes the tuples of a partition of the table to its file, returns their number
+     **/
+    private long spill(int partition, int numParts) throws IOException {
+        resident[partition] = false;
+        long count = 0;
+        if (intTable != null) {
+            /** the tuples of the other partitions are put into a new table **/
+            IntHashTable kept = new IntHashTable(intTable.size());
+            for (int entry = 0; entry < intTable.size(); ++entry) {
+                Tuple tuple = intTable.tuple(entry);
+                if (Partition.partitionOf(Partition.hashOf(tuple, rightIndices), 0, numParts) == partition) {
+                    buildPart.add(tuple);
+                    count++;
+                } else {
+                    kept.put(intTable.key(entry), tuple);
+                }
+            }
+            intTable = kept;
+            return count;
+        }
+        Iterator<ArrayList<Tuple>> it = table.values().iterator();
+        while (it.hasNext()) {
+            ArrayList<Tuple> list = it.next();
+            if (Partition.partitionOf(Partition.hashOf(list.get(0), rightIndices), 0, numParts) == partition) {
+                for (Tuple tuple : list) {
+                    buildPart.add(tuple);
+                }
+                count += list.size();
+                it.remove();
+            }
+        }
+        return count;
+    }
 
-        Batch rightPage;
+    /**
+     * Key of a tuple in intTable
+     **/
+    private int intKey(Tuple tuple, int[] indices) {
+        return hashKeys ? Partition.hashOf(tuple, indices) : IntHashTable.keyOf(tuple.dataAt(indices[0]));
+    }
 
-        leftHashTable = new HashMap<>();
-        rightHashTable = new HashMap<>();
-        probingHashTable = new HashMap<>();
+    /**
+     * Adds a build tuple without null join attributes to the table
+     **/
+    private void insert(Tuple tuple) {
+        insert(tuple, table, intTable);
+    }
 
-        lcurs = 0;
-        rcurs = 0;
-        kcurs = 0;
+    /**
+     * Adds a build tuple to the given table, ints if it is not null, else map
+     **/
+    private void insert(Tuple tuple, HashMap<Object, ArrayList<Tuple>> map, IntHashTable ints) {
+        if (ints != null) {
+            ints.put(intKey(tuple, rightIndices), tuple);
+            return;
+        }
+        Object key = tuple.dataAt(rightIndices[0]);
+        ArrayList<Tuple> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<>();
+            map.put(key, list);
+        }
+        list.add(tuple);
+    }
 
-        eosl = false;
-        eosr = false;
-        checkKeySet = false;
-        checkHashJoin = false;
-        build = false;
+    private void clearTable() {
+        table.clear();
+        if (intTable != null) intTable.clear();
+    }
 
-        if(!right.open()){
-            return false;
-        } else {
-            filenum++;
-            tempRFileName = "tempHashJoin-" + filenum;
-            try{
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tempRFileName));
-                while ((rightPage = right.next()) != null) {
-                    out.writeObject(rightPage);
-                }
-                out.close();
-            } catch (IOException io) {
-                System.out.println("HashJoin: Error writing to temporary file");
-                return false;
+    /**
+     * Hashes the tuples of an input into partition files, null if it cannot be read
+     **/
+    private Partition partition(Operator input, int[] indices, String name, int numParts, int seed) throws IOException {
+        if (!input.open())
+            return null;
+        Partition partition = new Partition(name, numParts, input.getSchema(), indices, seed);
+        for (int p = 0; p < numParts; ++p) {
+            files.add(partition.getFile(p));
+        }
+        Batch page;
+        while ((page = input.next()) != null) {
+            for (int i = 0; i < page.size(); ++i) {
+                Tuple tuple = page.get(i);
+                if (input == left && !passesFilter(tuple)) continue;
+                if (partition.add(tuple) && input == right) noteBuildKey(tuple);
             }
-            if (!right.close())
-                return false;
+            page.release();
         }
+        partition.close();
+        if (!input.close())
+            return null;
+        return partition;
+    }
 
-        leftHasher = new Partition(left, "_left_", leftHashTable);
-        rightHasher = new Partition(right, tempRFileName, rightHashTable);
+    /**
+     * Keeps the key hash code of a build tuple without null join attributes for the Bloom filter
+     **/
+    private void noteBuildKey(Tuple tuple) {
+        if (buildHashes == null) return;
+        if (numBuildHashes == buildHashes.length) {
+            buildHashes = Arrays.copyOf(buildHashes, 2 * buildHashes.length);
+        }
+        buildHashes[numBuildHashes++] = Partition.hashOf(tuple, rightIndices);
+    }
 
-        if (left.open())
-            return true;
-        else
-            return false;
+    /**
+     * Builds the Bloom filter of the build keys and hands it
+     * * to the scan of the left input that has the join attributes
+     **/
+    private void makeFilter() {
+        if (buildHashes == null) return;
+        bloom = new BloomFilter(numBuildHashes);
+        for (int i = 0; i < numBuildHashes; ++i) {
+            bloom.add(buildHashes[i]);
+        }
+        buildHashes = null;
+        ArrayList<Attribute> attrs = new ArrayList<>();
+        for (Condition con : conditionList) {
+            attrs.add(con.getLhs());
+        }
+        Scan scan = probeScan(left, attrs);
+        bloomPushed = scan != null && scan.setBloomFilter(bloom, attrs);
     }
 
-    public Batch next(){
-        int left;
-        int right;
-        int key;
-        ArrayList<Tuple> leftTupleList;
-        ArrayList<Tuple> rightTupleList;
-
-        if(checkHashJoin){
-            close();
-            return null;
+    /**
+     * The scan below op that outputs the attributes, looking through
+     * * selections and into the side of a join that has them all. Null if none.
+     **/
+    private static Scan probeScan(Operator op, ArrayList<Attribute> attrs) {
+        while (true) {
+            if (op instanceof Scan) {
+                return (Scan) op;
+            } else if (op.getOpType() == OpType.SELECT) {
+                op = ((Select) op).getBase();
+            } else if (op.getOpType() == OpType.JOIN) {
+                Join jn = (Join) op;
+                if (hasAll(jn.getLeft().getSchema(), attrs)) {
+                    op = jn.getLeft();
+                } else if (hasAll(jn.getRight().getSchema(), attrs)) {
+                    op = jn.getRight();
+                } else {
+                    return null;
+                }
+            } else {
+                return null;
+            }
         }
+    }
 
-        outbatch = new Batch(batchSize);
+    private static boolean hasAll(Schema schema, ArrayList<Attribute> attrs) {
+        for (Attribute attr : attrs) {
+            if (!schema.contains(attr)) return false;
+        }
+        return true;
+    }
 
-        leftHashTable = leftHasher.partitionLeftTable(leftIndex);
-        rightHashTable = rightHasher.partitionRightTable(rightIndex);
+    /**
+     * Whether a probe tuple may join, false if the Bloom filter shows it cannot.
+     * * Tuples with null join attributes are left to the partitioning to drop.
+     **/
+    private boolean passesFilter(Tuple tuple) {
+        if (bloom == null || bloomPushed || Partition.hasNullKey(tuple, leftIndices)) return true;
+        return bloom.mightContain(Partition.hashOf(tuple, leftIndices));
+    }
 
-        if (!checkKeySet) {
-            searchKeyList = new ArrayList<>();
-            for(Object hashKey : leftHashTable.keySet()){
-                searchKeyList.add(hashKey);
+    /**
+     * Adds to out the pairs of partitions of the same hash values that both have tuples
+     **/
+    private void addPairs(Partition build, Partition probe, int depth, long parentCount, Collection<Pair> out) {
+        for (int p = 0; p < build.getNumPartitions(); ++p) {
+            long buildCount = build.getCount(p);
+            long probeCount = probe.getCount(p);
+            if (buildCount == 0 || probeCount == 0) {
+                deleteFile(build.getFile(p));
+                deleteFile(probe.getFile(p));
+            } else {
+                out.add(new Pair(build.getFile(p), probe.getFile(p), buildCount, probeCount,
+                        depth, buildCount < parentCount));
             }
-            checkKeySet = true;
         }
+    }
 
-        while (!outbatch.isFull() && kcurs < searchKeyList.size()) {
-            while((key = kcurs) < searchKeyList.size()) {
-                Object searchKey = searchKeyList.get(key++);
-                if (rightHashTable.containsKey(searchKey)) {
-                    leftTupleList = leftHashTable.get(searchKey);
-                    rightTupleList = rightHashTable.get(searchKey);
+    /**
+     * The next pair to be joined, partitioning again those whose build
+     * * partition does not fit in the hash table. Null when none is left.
+     **/
+    private Pair nextPair() throws IOException {
+        Pair pair;
+        while ((pair = pairs.poll()) != null) {
+            if (!needsSplit(pair, capacity))
+                return pair;
+            splits++;
+            split(pair, prefix + "-" + (pair.depth + 1) + "." + splits, Math.max(2, numBuff - 1), pairs);
+        }
+        return null;
+    }
 
-                    if (!build) {
-                        for (int i = 0; i < leftTupleList.size(); i++) {
-                            Tuple leftTuple = leftTupleList.get(i);
-                            int leftHash = SDBMHash(leftTuple.dataAt(leftIndex));
-                            if (probingHashTable.containsKey(leftHash)) {
-                                probingHashTable.get(leftHash).add(leftTuple);
-                            } else {
-                                ArrayList<Tuple> probeLeftList = new ArrayList<>();
-                                probeLeftList.add(leftTuple);
-                                probingHashTable.put(leftHash, probeLeftList);
-                            }
-                        }
-                        build = true;
-                    }
+    /**
+     * Whether the build partition of a pair is larger than a table of cap tuples
+     * * and partitioning it again may help
+     **/
+    private static boolean needsSplit(Pair pair, long cap) {
+        return pair.buildCount > cap && pair.depth < MAX_DEPTH && pair.splittable;
+    }
+
+    /**
+     * Partitions a pair again with the seed of the next depth into numParts
+     * * files named after name, adds the new pairs to out and deletes the files of the pair
+     **/
+    private void split(Pair pair, String name, int numParts, Collection<Pair> out) throws IOException {
+        int seed = pair.depth + 1;
+        Partition build = new Partition(name + "R", numParts, right.getSchema(), rightIndices, seed);
+        Partition probe = new Partition(name + "L", numParts, left.getSchema(), leftIndices, seed);
+        for (int p = 0; p < numParts; ++p) {
+            files.add(build.getFile(p));
+            files.add(probe.getFile(p));
+        }
+        build.addFile(pair.buildFile);
+        build.close();
+        probe.addFile(pair.probeFile);
+        probe.close();
+        deleteFile(pair.buildFile);
+        deleteFile(pair.probeFile);
+        addPairs(build, probe, seed, pair.buildCount, out);
+    }
+
+    /**
+     * Loads the next chunk of the build partition into the hash table,
+     * * returns the number of tuples loaded
+     **/
+    private int loadChunk() throws IOException {
+        clearTable();
+        int count = 0;
+        while (count < capacity && buildIn != null) {
+            if (buildBatch == null || buildCurs >= buildBatch.size()) {
+                if (buildBatch != null) buildBatch.release();
+                buildBatch = null;
+                try {
+                    buildBatch = rightCodec.read(buildIn);
+                    buildCurs = 0;
+                } catch (EOFException e) {
+                    buildIn.close();
+                    buildIn = null;
+                }
+                continue;
+            }
+            Tuple tuple = buildBatch.get(buildCurs++);
+            insert(tuple);
+            count++;
+        }
+        return count;
+    }
 
-                    while((right = rcurs) < rightTupleList.size()) {
-                        Tuple rightTuple = rightTupleList.get(right++);
-                        int rightHash = SDBMHash(rightTuple.dataAt(rightIndex));
-                        if (probingHashTable.containsKey(rightHash)) {
-                            ArrayList<Tuple> probeLeftList = probingHashTable.get(rightHash);
-                            for(left = lcurs; left < probeLeftList.size(); left++){
-                                Tuple leftTuple = probeLeftList.get(left);
-                                Tuple outputTuple = leftTuple.joinWith(rightTuple);
-                                outbatch.add(outputTuple);
-
-                                if (outbatch.isFull()) {
-                                    if (left == probeLeftList.size() - 1 && right == rightTupleList.size()) {
-                                        kcurs = key;
-                                        lcurs = 0;
-                                        rcurs = 0;
-                                        build = false;
-                                        probingHashTable.clear();
-                                    } else if (right != rightTupleList.size() && left == probeLeftList.size() - 1) {
-                                        rcurs = right;
-                                        lcurs = 0;
-                                    } else {
-                                        lcurs = left + 1;
-                                    }
-                                    return outbatch;
-                                }
-                            }
+    /**
+     * Joins the partition pairs and returns a page of output tuples
+     **/
+    public Batch next(){
+        if (workers != null) {
+            return nextParallel();
+        }
+        if (eos) {
+            return null;
+        }
+        outbatch = pool.acquire();
+        try {
+            while (!outbatch.isFull()) {
+                if (matches != null && matchCurs < matches.size()) {
+                    outbatch.add(probeTuple.joinWith(matches.get(matchCurs++)));
+                    continue;
+                }
+                matches = null;
+                if (matchEntry >= 0) {
+                    Tuple buildTuple = intTable.tuple(matchEntry);
+                    matchEntry = intTable.next(matchEntry);
+                    if (!hashKeys || probeTuple.checkJoin(buildTuple, leftIndices, rightIndices)) {
+                        outbatch.add(probeTuple.joinWith(buildTuple));
+                    }
+                    continue;
+                }
+                if (probeBatch != null && probeCurs < probeBatch.size()) {
+                    probeTuple = probeBatch.get(probeCurs++);
+                    if (Partition.hasNullKey(probeTuple, leftIndices)) continue;
+                    if (probing && !passesFilter(probeTuple)) continue;
+                    if (probing && !resident[Partition.partitionOf(
+                            Partition.hashOf(probeTuple, leftIndices), 0, resident.length)]) {
+                        probePart.add(probeTuple);
+                        continue;
+                    }
+                    if (intTable == null) {
+                        matches = table.get(probeTuple.dataAt(leftIndices[0]));
+                        matchCurs = 0;
+                    } else {
+                        matchEntry = intTable.first(intKey(probeTuple, leftIndices));
+                    }
+                    continue;
+                }
+                if (probeBatch != null) {
+                    probeBatch.release();
+                    probeBatch = null;
+                }
+                if (probing) {
+                    probeBatch = left.next();
+                    probeCurs = 0;
+                    if (probeBatch == null) {
+                        /** the partitions in memory are joined, the spilled ones are left **/
+                        probing = false;
+                        probePart.close();
+                        if (!left.close()) {
+                            System.out.println("HashJoin: Error closing left input");
+                            System.exit(1);
                         }
-                        rcurs++;
-                        lcurs = 0;
+                        clearTable();
+                        addPairs(buildPart, probePart, 0, Long.MAX_VALUE, pairs);
+                    }
+                    continue;
+                }
+                if (probeIn != null) {
+                    try {
+                        probeBatch = leftCodec.read(probeIn, probePool);
+                        probeCurs = 0;
+                    } catch (EOFException e) {
+                        probeIn.close();
+                        probeIn = null;
                     }
+                    continue;
+                }
+                /** the probe partition has been read against the whole chunk **/
+                if (current != null && buildIn != null && loadChunk() > 0) {
+                    probeIn = BatchCodec.openInput(current.probeFile);
+                    continue;
+                }
+                if (current != null) {
+                    deleteFile(current.buildFile);
+                    deleteFile(current.probeFile);
+                }
+                if (numWorkers > 1) {
+                    startWorkers();
+                    break;
+                }
+                current = nextPair();
+                if (current == null) {
+                    eos = true;
+                    clearTable();
+                    break;
+                }
+                buildIn = BatchCodec.openInput(current.buildFile);
+                buildBatch = null;
+                if (loadChunk() > 0) {
+                    probeIn = BatchCodec.openInput(current.probeFile);
                 }
-                moveCurs();
-                probingHashTable.clear();
             }
+        } catch (IOException io) {
+            System.out.println("HashJoin: Error reading partition files");
+            System.exit(1);
         }
-        moveCurs();
-        probingHashTable.clear();
+        if (outbatch.isEmpty()) {
+            outbatch.release();
+            return (workers != null) ? nextParallel() : null;
+        }
+        return outbatch;
+    }
 
-        checkHashJoin = kcurs >= searchKeyList.size();
+    /**
+     * Hands the partition pairs left to the worker threads
+     **/
+    private void startWorkers() {
+        results = new ArrayBlockingQueue<>(numWorkers);
+        workers = new ForkJoinPool(numWorkers);
+        ArrayList<PairTask> tasks = new ArrayList<>();
+        for (Pair pair : pairs) {
+            tasks.add(new PairTask(pair));
+        }
+        pairs.clear();
+        workers.execute(() -> {
+            try {
+                ForkJoinTask.invokeAll(tasks);
+                put(END);
+            } catch (Throwable e) {
+                put(e);
+            }
+        });
+    }
 
-        return outbatch;
+    /**
+     * Next output page of the workers, null once they have all finished
+     **/
+    private Batch nextParallel() {
+        if (eos) {
+            return null;
+        }
+        Object item;
+        try {
+            item = results.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            item = e;
+        }
+        if (item == END) {
+            eos = true;
+            workers.shutdown();
+            return null;
+        }
+        if (item instanceof Throwable) {
+            Throwable failure = (Throwable) item;
+            if (failure instanceof UncheckedIOException) failure = failure.getCause();
+            System.out.println("HashJoin: Error joining partition pairs: " + failure);
+            failure.printStackTrace();
+            System.exit(1);
+        }
+        return (Batch) item;
     }
 
-    public int SDBMHash(Object o) {
-        int hash = 0;
-        String obj = String.valueOf(o);
-        for(int i = 0; i < obj.length(); i++){
-            hash = obj.charAt(i) + (hash << 6) + (hash << 16) - hash;
+    /**
+     * Waits for room in the queue, gives up once the join is closed
+     **/
+    private boolean put(Object item) {
+        try {
+            while (!stopped) {
+                if (results.offer(item, 10, TimeUnit.MILLISECONDS)) return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        return hash;
+        return false;
     }
 
-    public void moveCurs(){
-        kcurs++;
-        lcurs = 0;
-        rcurs = 0;
-        build = false;
+    /**
+     * Joins a partition pair on a worker thread, or partitions it again
+     * * into smaller pairs joined by new tasks if it does not fit in the table
+     **/
+    class PairTask extends RecursiveAction {
+        final Pair pair;
+
+        PairTask(Pair pair) {
+            this.pair = pair;
+        }
+
+        protected void compute() {
+            if (stopped) return;
+            try {
+                if (!needsSplit(pair, workerCapacity)) {
+                    joinPair(pair);
+                    return;
+                }
+                /** the pages of the table and the output page take the partitions **/
+                ArrayList<Pair> parts = new ArrayList<>();
+                split(pair, pair.buildFile + ".", Math.max(2, workerPages + 1), parts);
+                ArrayList<PairTask> tasks = new ArrayList<>();
+                for (Pair part : parts) {
+                    tasks.add(new PairTask(part));
+                }
+                invokeAll(tasks);
+            } catch (IOException io) {
+                throw new UncheckedIOException(io);
+            }
+        }
     }
 
-    public boolean close(){
-        File f = new File(tempRFileName);
+    /**
+     * Joins a pair with a table of its own, a chunk of workerCapacity build
+     * * tuples at a time, and queues the output pages
+     **/
+    private void joinPair(Pair pair) throws IOException {
+        HashMap<Object, ArrayList<Tuple>> map = new HashMap<>();
+        IntHashTable ints = (intTable != null) ? new IntHashTable(workerCapacity) : null;
+        Batch out = pool.acquire();
+        DataInputStream in = BatchCodec.openInput(pair.buildFile);
+        Batch page = null;
+        int curs = 0;
+        boolean more = true;
+        try {
+            while (more && !stopped) {
+                map.clear();
+                if (ints != null) ints.clear();
+                int count = 0;
+                while (count < workerCapacity) {
+                    if (page != null && curs < page.size()) {
+                        insert(page.get(curs++), map, ints);
+                        count++;
+                        continue;
+                    }
+                    if (page != null) page.release();
+                    try {
+                        page = rightCodec.read(in);
+                        curs = 0;
+                    } catch (EOFException e) {
+                        page = null;
+                        more = false;
+                        break;
+                    }
+                }
+                if (count == 0) break;
+                out = probe(pair, map, ints, out);
+            }
+        } finally {
+            in.close();
+        }
+        if (out.isEmpty() || !put(out)) out.release();
+        deleteFile(pair.buildFile);
+        deleteFile(pair.probeFile);
+    }
+
+    /**
+     * Streams the probe partition of a pair against a chunk of its build
+     * * partition, returns the output page being filled
+     **/
+    private Batch probe(Pair pair, HashMap<Object, ArrayList<Tuple>> map, IntHashTable ints, Batch out)
+            throws IOException {
+        DataInputStream in = BatchCodec.openInput(pair.probeFile);
+        try {
+            while (!stopped) {
+                Batch page;
+                try {
+                    page = leftCodec.read(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                for (int i = 0; i < page.size(); ++i) {
+                    Tuple tuple = page.get(i);
+                    if (ints == null) {
+                        ArrayList<Tuple> list = map.get(tuple.dataAt(leftIndices[0]));
+                        if (list == null) continue;
+                        for (Tuple buildTuple : list) {
+                            out = emit(out, tuple.joinWith(buildTuple));
+                        }
+                        continue;
+                    }
+                    for (int entry = ints.first(intKey(tuple, leftIndices)); entry >= 0; entry = ints.next(entry)) {
+                        Tuple buildTuple = ints.tuple(entry);
+                        if (!hashKeys || tuple.checkJoin(buildTuple, leftIndices, rightIndices)) {
+                            out = emit(out, tuple.joinWith(buildTuple));
+                        }
+                    }
+                }
+                page.release();
+            }
+        } finally {
+            in.close();
+        }
+        return out;
+    }
+
+    /**
+     * Adds a tuple to the output page of a worker, queuing the page once
+     * * full and returning the page to fill next
+     **/
+    private Batch emit(Batch out, Tuple tuple) {
+        out.add(tuple);
+        if (!out.isFull()) return out;
+        if (!put(out)) out.clear();
+        else out = pool.acquire();
+        return out;
+    }
+
+    private static void deleteFile(String filename) {
+        File f = new File(filename);
         f.delete();
+    }
+
+    /**
+     * Closes the partition files being read and deletes them all
+     **/
+    public boolean close(){
+        if (workers != null) {
+            stopped = true;
+            results.clear();
+            workers.shutdownNow();
+            try {
+                workers.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            results.clear();
+            workers = null;
+        }
+        try {
+            if (buildIn != null) buildIn.close();
+            if (probeIn != null) probeIn.close();
+        } catch (IOException io) {
+            System.out.println("HashJoin: Error closing partition files");
+        }
+        buildIn = null;
+        probeIn = null;
+        if (files != null) {
+            for (String filename : files) {
+                deleteFile(filename);
+            }
+        }
         return true;
     }
-}
\ No newline at end of file
+}
@@ -11,11 +11,11 @@ public class JoinType {
     public static final int NESTEDJOIN = 0;
     public static final int BLOCKNESTED = 1;
     public static final int HASHJOIN = 2;
-    public static final int SORTMERGE = 3;
+    public static final int HYBRIDHASH = 3;
+    public static final int SORTMERGE = 4;
 
 
     public static int numJoinTypes() {
-        return 3;
-        //should be 3 after additional join is added
+        return 4;  // SORTMERGE has no operator and is never chosen
     }
 }
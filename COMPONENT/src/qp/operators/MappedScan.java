@@ -0,0 +1,100 @@
+/**
+ * Scans a base table through a memory mapping of its file
+ **/
+
+package qp.operators;
+
+import qp.utils.Schema;
+import qp.utils.TableHeader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * MappedScan maps the whole paged table file with FileChannel.map and decodes
+ * * the tuples straight out of the mapping. As every data page is aligned to the
+ * * page size of the file, a page is just a slice of the mapping and no read()
+ * * call is issued per page. Hot tables are served from the OS page cache
+ * * across repeated queries.
+ **/
+public class MappedScan extends Scan {
+
+    /**
+     * Address space that may be spent on one mapping. A single
+     * * MappedByteBuffer cannot exceed Integer.MAX_VALUE bytes and a
+     * * 32 bit JVM has far less room to spare.
+     **/
+    static final long ADDRESS_SPACE = "32".equals(System.getProperty("sun.arch.data.model"))
+            ? 256L * 1024 * 1024 : Integer.MAX_VALUE;
+
+    MappedByteBuffer mapped;  // Mapping of the whole table file
+
+    public MappedScan(String tabname, int type) {
+        super(tabname, type);
+    }
+
+    public MappedScan(Scan scan) {
+        super(scan.getTabName(), scan.getOpType());
+        setSchema(scan.getSchema());
+        setNeededAttributes(scan.getNeededAttributes());
+        setLateAttributes(scan.getLateAttributes());
+    }
+
+    /**
+     * Whether the table file can be scanned through a mapping,
+     * * i.e. it is a paged table file that fits the address space
+     **/
+    public static boolean isMappable(String tabname) {
+        String filename = tabname + ".tbl";
+        if (TableHeader.read(filename) == null) return false;
+        long size = new File(filename).length();
+        return size > 0 && size <= ADDRESS_SPACE;
+    }
+
+    /**
+     * Opens the file and maps it read only
+     **/
+    public boolean open() {
+        if (!super.open()) return false;
+        if (channel == null) return true;  // serialized table, read as usual
+        try {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            System.err.println("MappedScan: Error mapping " + filename);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The page is a view of the mapping, nothing is copied
+     **/
+    protected void readPage(int num) {
+        int pagesize = header.getPageSize();
+        int offset = (int) header.pageOffset(num);
+        ByteBuffer view = mapped.duplicate();
+        view.position(offset);
+        view.limit(offset + Math.min(pagesize, mapped.capacity() - offset));
+        page = view.slice();
+        slot = 0;
+        pageLoaded = true;
+    }
+
+    public boolean close() {
+        /** the read-ahead thread may still be reading the mapping **/
+        boolean closed = super.close();
+        mapped = null;
+        return closed;
+    }
+
+    public Object clone() {
+        MappedScan newscan = new MappedScan(tabname, optype);
+        newscan.setSchema((Schema) schema.clone());
+        newscan.setNeededAttributes(attrset);
+        newscan.setLateAttributes(lateAttrs);
+        return newscan;
+    }
+}
@@ -6,6 +6,7 @@ package qp.operators;
 
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.BatchCodec;
 import qp.utils.Condition;
 import qp.utils.Tuple;
 
@@ -22,7 +23,8 @@ public class NestedJoin extends Join {
     Batch outbatch;                 // Buffer page for output
     Batch leftbatch;                // Buffer page for left input stream
     Batch rightbatch;               // Buffer page for right input stream
-    ObjectInputStream in;           // File pointer to the right hand materialized file
+    DataInputStream in;             // File pointer to the right hand materialized file
+    BatchCodec codec;               // Encoding of the right hand materialized file
 
     int lcurs;                      // Cursor for left side buffer
     int rcurs;                      // Cursor for right side buffer
@@ -44,7 +46,7 @@ public class NestedJoin extends Join {
     public boolean open() {
         /** select number of tuples per batch **/
         int tuplesize = schema.getTupleSize();
-        batchsize = Batch.getPageSize() / tuplesize;
+        batchsize = Batch.getVectorCapacity(tuplesize);
 
         /** find indices attributes of join conditions **/
         leftindex = new ArrayList<>();
@@ -78,10 +80,12 @@ public class NestedJoin extends Join {
              **/
             filenum++;
             rfname = "NJtemp-" + String.valueOf(filenum);
+            codec = new BatchCodec(right.getSchema());
             try {
-                ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(rfname));
+                DataOutputStream out = BatchCodec.openOutput(rfname);
                 while ((rightpage = right.next()) != null) {
-                    out.writeObject(rightpage);
+                    codec.write(rightpage, out);
+                    rightpage.release();
                 }
                 out.close();
             } catch (IOException io) {
@@ -119,7 +123,7 @@ public class NestedJoin extends Join {
                  ** scanning of right table
                  **/
                 try {
-                    in = new ObjectInputStream(new FileInputStream(rfname));
+                    in = BatchCodec.openInput(rfname);
                     eosr = false;
                 } catch (IOException io) {
                     System.err.println("NestedJoin:error in reading the file");
@@ -130,7 +134,7 @@ public class NestedJoin extends Join {
             while (eosr == false) {
                 try {
                     if (rcurs == 0 && lcurs == 0) {
-                        rightbatch = (Batch) in.readObject();
+                        rightbatch = codec.read(in);
                     }
                     for (i = lcurs; i < leftbatch.size(); ++i) {
                         for (j = rcurs; j < rightbatch.size(); ++j) {
@@ -167,9 +171,6 @@ public class NestedJoin extends Join {
                         System.out.println("NestedJoin: Error in reading temporary file");
                     }
                     eosr = true;
-                } catch (ClassNotFoundException c) {
-                    System.out.println("NestedJoin: Error in deserialising temporary file ");
-                    System.exit(1);
                 } catch (IOException io) {
                     System.out.println("NestedJoin: Error in reading temporary file");
                     System.exit(1);
@@ -1,8 +1,10 @@
 package qp.operators;
 
 import qp.utils.Batch;
+import qp.utils.BatchCodec;
 import qp.utils.Schema;
 import qp.utils.Tuple;
+import qp.utils.WriteBehind;
 
 import java.io.*;
 import java.util.*;
@@ -26,7 +28,10 @@ public class OrderBy extends Operator {
     private int processedTuples;
     private int pages = 0;
 
-    private ObjectInputStream inputStreamIter;
+    private DataInputStream inputStreamIter;
+    private BatchCodec codec; // encoding of the sorted run files
+    private WriteBehind flusher; // writes the sorted runs in the background, null if they are written directly
+    private DataOutputStream pendingOutput; // run still being written by the flusher, null if none
 
     public OrderBy(Operator base, List<OrderType> orderTypes, int numBuffers) {
         super(OpType.ORDERBY);
@@ -68,14 +73,17 @@ public class OrderBy extends Operator {
         runNo = 0;
         sortedRuns = new ArrayList<>();
         tupleComparator = new OrderByComparator(base.getSchema(), orderByTypeList);
+        codec = new BatchCodec(base.getSchema());
         tupleByteSize = base.schema.getTupleSize();
-        batchRecordSize = Batch.getPageSize() / tupleByteSize;
+        batchRecordSize = Batch.getPageCapacity(tupleByteSize);
 
         // generate sorted runs using external sorting
         generateSortedRuns();
+        awaitRun();
 
         // merge sorted runs
         performMerge();
+        closeFlusher();
 
         return true;
     }
@@ -87,7 +95,7 @@ public class OrderBy extends Operator {
         try {
             if (inputStreamIter == null) {
                 File batchFile = sortedRuns.get(0);
-                inputStreamIter = new ObjectInputStream(new FileInputStream(batchFile));
+                inputStreamIter = BatchCodec.openInput(batchFile.getPath());
             }
             return readBatch(inputStreamIter);
         } catch (FileNotFoundException e) {
@@ -194,14 +202,14 @@ public class OrderBy extends Operator {
     }
 
     /**
-     * Read Batch from ObjectInputStream.
+     * Read Batch from a sorted run file.
      */
-    private Batch readBatch(ObjectInputStream objInputStream) {
+    private Batch readBatch(DataInputStream inputStream) {
         try {
-            return (Batch) objInputStream.readObject();
+            return codec.read(inputStream);
         } catch (EOFException e) {
             return null;
-        } catch (ClassNotFoundException | IOException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
         return null;
@@ -249,7 +257,7 @@ public class OrderBy extends Operator {
     private File mergeSortedRuns(List<File> runs) {
         int availBuffers = runs.size();
         List<Batch> inputBuffers = new ArrayList<>();
-        List<ObjectInputStream> inputStreams = new ArrayList<>();
+        List<DataInputStream> inputStreams = new ArrayList<>();
 
         if (runs.isEmpty()) {
             return null;
@@ -258,7 +266,7 @@ public class OrderBy extends Operator {
         // open sorted runs files and add it to the input stream
         for (File f : runs) {
             try {
-                ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f));
+                DataInputStream ois = BatchCodec.openInput(f.getPath());
                 inputStreams.add(ois);
             } catch (IOException e) {
                 e.printStackTrace();
@@ -266,7 +274,7 @@ public class OrderBy extends Operator {
         }
 
         // read batches from the input stream into the buffer
-        for (ObjectInputStream s : inputStreams) {
+        for (DataInputStream s : inputStreams) {
             Batch b = readBatch(s);
             inputBuffers.add(b);
         }
@@ -278,7 +286,7 @@ public class OrderBy extends Operator {
     /**
      * Sort tuples in runs according to the tupleComparator.
      */
-    private File sortRuns(List<Batch> inBuffers, List<ObjectInputStream> inStreams, int buffers) {
+    private File sortRuns(List<Batch> inBuffers, List<DataInputStream> inStreams, int buffers) {
         Batch outBuffers = new Batch(batchRecordSize);
         File mergedFile = null;
         int[] batchPointers = new int[buffers];
@@ -313,7 +321,7 @@ public class OrderBy extends Operator {
             // updating smallest index and pointers
             batchPointers[smallestIndex] += 1;
             if (batchPointers[smallestIndex] == inBuffers.get(smallestIndex).capacity()) {
-                ObjectInputStream ois = inStreams.get(smallestIndex);
+                DataInputStream ois = inStreams.get(smallestIndex);
                 Batch batch = readBatch(ois);
                 if (batch != null) {
                     inBuffers.set(smallestIndex, batch);
@@ -327,6 +335,7 @@ public class OrderBy extends Operator {
             if (!outBuffers.isEmpty() || outBuffers.isFull()) {
                 if (mergedFile == null) {
                     mergedFile = writeRunToFile(Arrays.asList(outBuffers));
+                    awaitRun(); // outBuffers keeps changing, it has to be written before that
                 } else {
                     appendRunToFile(outBuffers, mergedFile);
                 }
@@ -348,10 +357,24 @@ public class OrderBy extends Operator {
             //int numTuples = 0;
             String fileName = "tempSortedRun-" + runNo + "-" + fileNo;
             sortedRunFile = new File(fileName);
-            ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(sortedRunFile));
+            DataOutputStream out = BatchCodec.openOutput(fileName);
+
+            if (WriteBehind.isEnabled()) {
+                // the previous run is finished first, this one is written while the next is sorted
+                awaitRun();
+                if (flusher == null) {
+                    flusher = new WriteBehind("OrderBy");
+                }
+                flusher.begin(b -> codec.write(b, out));
+                for (Batch b : sortedRun) {
+                    flusher.write(b);
+                }
+                pendingOutput = out;
+                return sortedRunFile;
+            }
 
             for (Batch b : sortedRun) {
-                out.writeObject(b);
+                codec.write(b, out);
                 //numTuples += b.size();
             }
             fileNo++;
@@ -366,31 +389,49 @@ public class OrderBy extends Operator {
     }
 
     /**
-     * Adds sorted run batch to a combined file, as part of the merging process.
+     * Waits for the sorted run written in the background and closes its file.
      */
-    private void appendRunToFile(Batch runBatch, File destFile) {
+    private void awaitRun() {
+        if (pendingOutput == null) {
+            return;
+        }
         try {
-            ObjectOutputStream out = new AppendObjectOutputStream(new FileOutputStream(destFile, true));
-            out.writeObject(runBatch);
-            out.close();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            flusher.flush();
+            pendingOutput.close();
         } catch (IOException e) {
-            e.printStackTrace();
+            System.err.println("OrderBy: IO Error in writing sorted run to file.");
         }
+        pendingOutput = null;
     }
 
     /**
-     * Altered ObjectOutputStream methods to allow appending streams to join files.
+     * Stops the background writer once every run is written.
      */
-    class AppendObjectOutputStream extends ObjectOutputStream {
-        AppendObjectOutputStream(OutputStream outStream) throws IOException {
-            super(outStream);
+    private void closeFlusher() {
+        awaitRun();
+        if (flusher == null) {
+            return;
+        }
+        try {
+            flusher.close();
+        } catch (IOException e) {
+            System.err.println("OrderBy: IO Error in writing sorted run to file.");
         }
+        flusher = null;
+    }
 
-        @Override
-        protected void writeStreamHeader() throws IOException {
-            reset();
+    /**
+     * Adds sorted run batch to a combined file, as part of the merging process.
+     */
+    private void appendRunToFile(Batch runBatch, File destFile) {
+        try {
+            DataOutputStream out = BatchCodec.openOutput(destFile.getPath(), true);
+            codec.write(runBatch, out);
+            out.close();
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 }
@@ -1,120 +1,148 @@
+/**
+ * Hashes the tuples of a join input into partition files
+ **/
+
 package qp.operators;
 
 import qp.utils.Batch;
+import qp.utils.BatchCodec;
 import qp.utils.Schema;
 import qp.utils.Tuple;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.HashMap;
 
+/**
+ * A Partition splits a stream of tuples into num files by the hash of their
+ * * join attributes. Each file has one page of output buffer, which is written
+ * * out whenever it fills up, so partitioning takes num buffer pages whatever
+ * * the size of the input. Tuples with a null join attribute join nothing and
+ * * are dropped. The hash depends on a seed, so that a partition that turns
+ * * out too large can be split again with a different hash function.
+ **/
 public class Partition {
-    int batchSize;
-    boolean eos;                                    // End of input stream
-    Schema schema;
-    Operator table;
-    String currTable;                               // Name of current working table
-    HashMap<Object, ArrayList<Tuple>> partition;    // HashMap partition to be returned
-    ObjectInputStream in;                           // Read temp file for right partition
-
-    public Partition(Operator table, String name, HashMap<Object, ArrayList<Tuple>> hashTable) {
-        this.table = table;
-        this.schema = table.getSchema();
-        this.currTable = name;
-        partition = hashTable;
-        eos = false;
+
+    final String[] files;          // Name of the file of each partition
+    final long[] counts;           // Number of tuples written to each partition
+    final DataOutputStream[] outs; // Output stream of each partition
+    final Batch[] buffers;         // Output page of each partition
+    final BatchCodec codec;
+    final int[] keyIndices;        // Indices of the join attributes
+    final int seed;                // Seed of the hash function
+    final int batchsize;           // Number of tuples per page
+
+    public Partition(String prefix, int num, Schema schema, int[] keyIndices, int seed) throws IOException {
+        files = new String[num];
+        counts = new long[num];
+        outs = new DataOutputStream[num];
+        buffers = new Batch[num];
+        codec = new BatchCodec(schema);
+        this.keyIndices = keyIndices;
+        this.seed = seed;
+        batchsize = Batch.getPageCapacity(schema.getTupleSize());
+        for (int p = 0; p < num; ++p) {
+            files[p] = prefix + "-" + p;
+            outs[p] = BatchCodec.openOutput(files[p]);
+            buffers[p] = new Batch(batchsize);
+        }
     }
 
-    public HashMap<Object, ArrayList<Tuple>> partitionLeftTable(int attrIndex) {
-        int tupleSize = schema.getTupleSize();
-        batchSize = Batch.getPageSize() / tupleSize;
-        Batch tempBuffer;
-
-        // read a page of table and split into partitions
-        while (!eos) {
-            tempBuffer = table.next();
-
-            // put tuples into corresponding partition buffers
-            Tuple record;
-            
-            while (tempBuffer != null) {
-                for (int i = 0; i < tempBuffer.size(); i++) {
-                    record = tempBuffer.get(i);
-                    int hashKey = hashFunc(record.dataAt(attrIndex));
-                    if(partition.containsKey(hashKey)){
-                        partition.get(hashKey).add(record);
-                    } else {
-                        ArrayList<Tuple> tupleList = new ArrayList<>();
-                        tupleList.add(record);
-                        partition.put(hashKey, tupleList);
-                    }
-                }
-                tempBuffer = table.next();
-            }
-            eos = true;
+    /**
+     * Whether one of the join attributes of the tuple is null
+     **/
+    public static boolean hasNullKey(Tuple tuple, int[] keyIndices) {
+        for (int index : keyIndices) {
+            if (tuple.dataAt(index) == null) return true;
         }
-        return partition;
+        return false;
     }
 
-    public HashMap<Object, ArrayList<Tuple>> partitionRightTable(int attrIndex) {
-        int tupleSize = schema.getTupleSize();
-        batchSize = Batch.getPageSize() / tupleSize;
-        Batch tempBuffer;
-        Tuple record;
-
-        // read a page of table and split into partitions
-        while (!eos) {
-            try {
-                in = new ObjectInputStream(new FileInputStream(currTable));
-            } catch (Exception io){
-                System.err.println("HashJoin: error reading file");
-                System.exit(1);
-            }
-            try{
-                tempBuffer = (Batch) in.readObject();
-                while (tempBuffer != null) {
-                    for (int i = 0; i < tempBuffer.size(); i++) {
-                        record = tempBuffer.get(i);
-                        int hashKey = hashFunc(record.dataAt(attrIndex));
-                        if(partition.containsKey(hashKey)){
-                            partition.get(hashKey).add(record);
-                        } else {
-                            ArrayList<Tuple> tupleList = new ArrayList<>();
-                            tupleList.add(record);
-                            partition.put(hashKey, tupleList);
-                        }
-                    }
-                    tempBuffer = (Batch) in.readObject();
-                }
-            }catch (EOFException e) {
-                try {
-                    in.close();
-                } catch (IOException io) {
-                    System.out.println(io.toString());
+    /**
+     * Hash code of the join attributes of a tuple, which must not be null.
+     * * For a single attribute it is the hash code of its value.
+     **/
+    public static int hashOf(Tuple tuple, int[] keyIndices) {
+        int h = 0;
+        for (int i = 0; i < keyIndices.length; ++i) {
+            h = hashStep(h, i, tuple.dataAt(keyIndices[i]));
+        }
+        return h;
+    }
+
+    /**
+     * Hash code of the first i join attributes combined with the value of
+     * * attribute i. Whoever hashes keys value by value goes through this, so
+     * * that its hash codes are those of hashOf.
+     **/
+    public static int hashStep(int hash, int i, Object value) {
+        return (i == 0) ? value.hashCode() : 31 * hash + value.hashCode();
+    }
+
+    /**
+     * Partition of a hash code of the join attributes for the seed, among num partitions
+     **/
+    public static int partitionOf(int hash, int seed, int num) {
+        int h = hash ^ (seed * 0x9E3779B9);
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, num);
+    }
+
+    /**
+     * Adds the tuple to its partition, returns false if it was dropped
+     **/
+    public boolean add(Tuple tuple) throws IOException {
+        if (hasNullKey(tuple, keyIndices)) return false;
+        int p = partitionOf(hashOf(tuple, keyIndices), seed, files.length);
+        buffers[p].add(tuple);
+        counts[p]++;
+        if (buffers[p].isFull()) {
+            codec.write(buffers[p], outs[p]);
+            buffers[p].clear();
+        }
+        return true;
+    }
+
+    /**
+     * Adds every tuple of the file, written by a BatchCodec of the same schema
+     **/
+    public void addFile(String filename) throws IOException {
+        DataInputStream in = BatchCodec.openInput(filename);
+        try {
+            while (true) {
+                Batch batch = codec.read(in);
+                for (int i = 0; i < batch.size(); ++i) {
+                    add(batch.get(i));
                 }
-                eos = true;
-            } catch (ClassNotFoundException c) {
-                System.out.println(c.toString());
-                System.exit(1);
-            } catch (IOException io) {
-                System.out.println(io.toString());
-                System.exit(1);
             }
-            eos = true;
+        } catch (EOFException e) {
+            in.close();
         }
-        return partition;
     }
 
-    /* djb2
-     * This algorithm was first reported by Dan Bernstein
-     * many years ago in comp.lang.c
-     */
-    protected int hashFunc(Object o) {
-        int hash = 5381;
-        int len = String.valueOf(o).length();
-        for(int i = 0; i < len; ++i){
-            hash = 33* hash + String.valueOf(o).charAt(i);
+    /**
+     * Writes out the partially filled pages and closes the files
+     **/
+    public void close() throws IOException {
+        for (int p = 0; p < files.length; ++p) {
+            if (!buffers[p].isEmpty()) {
+                codec.write(buffers[p], outs[p]);
+                buffers[p].clear();
+            }
+            outs[p].close();
         }
-        return hash;
+    }
+
+    public int getNumPartitions() {
+        return files.length;
+    }
+
+    public String getFile(int p) {
+        return files[p];
+    }
+
+    public long getCount(int p) {
+        return counts[p];
     }
 }
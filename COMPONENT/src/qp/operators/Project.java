@@ -6,8 +6,10 @@ package qp.operators;
 
 import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.BatchPool;
 import qp.utils.Schema;
 import qp.utils.Tuple;
+import qp.utils.VectorBatch;
 
 import java.util.ArrayList;
 
@@ -23,6 +25,7 @@ public class Project extends Operator {
      **/
     Batch inbatch;
     Batch outbatch;
+    BatchPool pool;  // Output batches, reused once released by the consumer
 
     /**
      * index of the attributes in the base operator
@@ -57,7 +60,8 @@ public class Project extends Operator {
     public boolean open() {
         /** set number of tuples per batch **/
         int tuplesize = schema.getTupleSize();
-        batchsize = Batch.getPageSize() / tuplesize;
+        batchsize = Batch.getVectorCapacity(tuplesize);
+        pool = new BatchPool(() -> new Batch(batchsize));
 
         if (!base.open()) return false;
 
@@ -84,7 +88,6 @@ public class Project extends Operator {
      * Read next tuple from operator
      */
     public Batch next() {
-        outbatch = new Batch(batchsize);
         /** all the tuples in the inbuffer goes to the output buffer **/
         inbatch = base.next();
 
@@ -92,6 +95,12 @@ public class Project extends Operator {
             return null;
         }
 
+        /** the columns of a vector batch are passed on without copying **/
+        if (inbatch instanceof VectorBatch) {
+            return ((VectorBatch) inbatch).project(attrIndex, batchsize);
+        }
+
+        outbatch = pool.acquire();
         for (int i = 0; i < inbatch.size(); i++) {
             Tuple basetuple = inbatch.get(i);
             //Debug.PPrint(basetuple);
@@ -104,6 +113,7 @@ public class Project extends Operator {
             Tuple outtuple = new Tuple(present);
             outbatch.add(outtuple);
         }
+        inbatch.release();
         return outbatch;
     }
 
@@ -4,26 +4,108 @@
 
 package qp.operators;
 
+import qp.optimizer.BufferManager;
+import qp.utils.Attribute;
 import qp.utils.Batch;
+import qp.utils.BatchPool;
+import qp.utils.BloomFilter;
+import qp.utils.BufferPool;
+import qp.utils.ChannelPageFile;
+import qp.utils.ColumnChunk;
+import qp.utils.Condition;
+import qp.utils.PageLayout;
+import qp.utils.ReadAhead;
+import qp.utils.RowFetcher;
+import qp.utils.RowIdTuple;
 import qp.utils.Schema;
+import qp.utils.SharedScans;
+import qp.utils.TableHeader;
 import qp.utils.Tuple;
+import qp.utils.VectorBatch;
+import qp.utils.ZoneMap;
 
 import java.io.EOFException;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Scan operator - read data from a file
+ * * Paged table files are read one whole page at a time with a positioned read,
+ * * files written with Java serialization by older loaders are still readable
  */
 public class Scan extends Operator {
 
     String filename;       // Corresponding file name
     String tabname;        // Table name
     int batchsize;         // Number of tuples per out batch;
-    ObjectInputStream in;  // Input file being scanned
+    ObjectInputStream in;  // Input file being scanned (serialized tables)
     boolean eos;           // To indicate whether end of stream reached or not
 
+    FileChannel channel;   // Input file being scanned (paged tables)
+    TableHeader header;    // Header page of the table file
+    PageLayout layout;     // Layout of the data pages
+    ByteBuffer page;       // Current data page
+    int pageno;            // Number of the next page to be read
+    int pagesLeft;         // Number of pages not read yet
+    boolean shared;        // Whether the scan is attached to the other scans of the file
+    int slot;              // Next slot to be read in the current page
+    boolean pageLoaded;    // Whether the current page still holds unread slots
+    ChannelPageFile pages;    // Data pages of the file as seen by the buffer pool
+    BufferPool.Frame frame;   // Pinned frame of the current page, null if not read through the pool
+
+    /**
+     * Attributes referenced by the rest of the plan, null if all are needed.
+     * * Only these attributes are decoded, the others are left null in the
+     * * output tuples. On PAX pages only their minipages are read.
+     **/
+    ArrayList<Attribute> attrset;
+    ArrayList<Attribute> lateAttrs;  // Attributes only projected at the end, may be read late
+    boolean[] lazy;        // Whether each attribute is left to the fetcher, null if none is
+    RowFetcher fetcher;    // Reads the lazy attributes of the output tuples
+    int current;           // Number of the current page
+    boolean[] needed;      // Whether each attribute of the schema is decoded
+    int[] readRanges;      // Byte ranges of a page to be read
+    int[] types;           // Type of each attribute, for filling vector batches
+    BatchPool pool;        // Batches handed out, reused once released by the consumer
+
+    /**
+     * Selection conditions with a constant evaluated by the scan.
+     * * Only accepted for paged tables. Pages whose zone map shows they hold
+     * * no qualifying tuple are skipped without being read. On COMPRESSED pages
+     * * the conditions are evaluated on the encoded values before any tuple is
+     * * decoded, on ROW and PAX pages on the values of each used slot.
+     **/
+    ArrayList<Condition> conditions = new ArrayList<>();
+    int[] condIndex;       // Attribute index of each condition
+    Object[] constants;    // Parsed constant of each condition
+    ColumnChunk[] chunks;  // COMPRESSED: chunks of the current page, null if not used
+    boolean[] match;       // COMPRESSED: whether each tuple of the current page qualifies
+    int pageSlots;         // Number of slots of the current page
+    ZoneMap zones;         // Value ranges of the pages, null if unknown or not needed
+
+    /**
+     * Bloom filter of the join keys of the hash join this scan is the probe
+     * * input of, null if none. Tuples whose key hash, as computed by
+     * * Partition.hashOf, is not in the filter are dropped before being decoded.
+     **/
+    BloomFilter bloom;
+    int[] bloomIndex;      // Attribute indices of the key of the Bloom filter
+
+    /**
+     * Batches read ahead on a background thread, null when reading synchronously.
+     * * The read-ahead is started by the first call to next() and holds
+     * * prefetch buffers of the BufferManager until the scan is closed.
+     **/
+    ReadAhead readAhead;
+    int prefetch;          // Number of read-ahead buffers held
+    boolean started;       // Whether next() has been called since open()
+
     /**
      * Constructor - just save filename
      */
@@ -37,20 +119,133 @@ public class Scan extends Operator {
         return tabname;
     }
 
+    public ArrayList<Attribute> getNeededAttributes() {
+        return attrset;
+    }
+
+    public void setNeededAttributes(ArrayList<Attribute> attrs) {
+        this.attrset = attrs;
+    }
+
+    public ArrayList<Attribute> getLateAttributes() {
+        return lateAttrs;
+    }
+
+    /**
+     * Attributes only the final projection reads. With late materialization
+     * * they are not decoded by the scan but fetched by row id.
+     **/
+    public void setLateAttributes(ArrayList<Attribute> attrs) {
+        this.lateAttrs = attrs;
+    }
+
+    /**
+     * Hands the Bloom filter of a hash join build input to the scan, keyed by
+     * * the hash of the given attributes. Returns false if the scan does not
+     * * have them all, or already applies the filter of another join, which
+     * * then has to filter its input itself. Takes effect at the next open().
+     **/
+    public boolean setBloomFilter(BloomFilter filter, ArrayList<Attribute> attrs) {
+        if (bloom != null) return false;
+        int[] indices = new int[attrs.size()];
+        for (int i = 0; i < indices.length; ++i) {
+            indices[i] = schema.indexOf(attrs.get(i));
+            if (indices[i] == -1) return false;
+        }
+        bloom = filter;
+        bloomIndex = indices;
+        return true;
+    }
+
+    /**
+     * Hands a selection condition to the scan. Returns true if the scan
+     * * will only output tuples satisfying it, false if it is left to the caller
+     **/
+    public boolean addCondition(Condition con) {
+        if (con.getOpType() != Condition.SELECT || !(con.getRhs() instanceof String)) return false;
+        if (schema.indexOf(con.getLhs()) == -1) return false;
+        if (TableHeader.read(filename) == null) return false;
+        if (!conditions.contains(con)) conditions.add(con);
+        return true;
+    }
+
     /**
      * Open file prepare a stream pointer to read input file
      */
     public boolean open() {
         /** num of tuples per batch**/
         int tuplesize = schema.getTupleSize();
-        batchsize = Batch.getPageSize() / tuplesize;
+        batchsize = Batch.getVectorCapacity(tuplesize);
+        /** a scan may be reopened without being closed, e.g. by Distinct **/
+        close();
         eos = false;
+        started = false;
         try {
-            in = new ObjectInputStream(new FileInputStream(filename));
+            RandomAccessFile raf = new RandomAccessFile(filename, "r");
+            channel = raf.getChannel();
+            header = TableHeader.read(channel);
+            if (header == null) {
+                /** not a paged table file, fall back to deserialization **/
+                channel.close();
+                channel = null;
+                in = new ObjectInputStream(new FileInputStream(filename));
+                pool = new BatchPool(() -> new Batch(batchsize));
+                return true;
+            }
         } catch (Exception e) {
             System.err.println(" Error reading " + filename);
             return false;
         }
+        layout = new PageLayout(schema, header.getPageSize(), header.getLayout());
+        if (layout.getSlotSize() != header.getSlotSize()) {
+            System.err.println("Scan: schema does not match the layout of " + filename);
+            return false;
+        }
+        needed = null;
+        if (attrset != null) {
+            needed = new boolean[schema.getNumCols()];
+            for (Attribute attr : attrset) {
+                int index = schema.indexOf(attr);
+                if (index != -1) needed[index] = true;
+            }
+        }
+        types = VectorBatch.typesOf(schema);
+        if (!prepareConditions()) return false;
+        lazy = lateColumns();
+        if (lazy != null) {
+            if (fetcher == null) fetcher = RowFetcher.create(filename, schema, lazy);
+            if (needed == null) {
+                needed = new boolean[lazy.length];
+                Arrays.fill(needed, true);
+            }
+            for (int i = 0; i < lazy.length; ++i) {
+                if (lazy[i]) needed[i] = false;
+            }
+        }
+        pool = new BatchPool(VectorBatch.isEnabled() && lazy == null
+                ? () -> new VectorBatch(types, batchsize) : () -> new Batch(batchsize));
+        readRanges = layout.getReadRanges(readNeeded());
+        zones = null;
+        if (!conditions.isEmpty()) {
+            try {
+                zones = ZoneMap.read(channel, header, schema);
+            } catch (IOException e) {
+                System.err.println("Scan: Error reading the zone map of " + filename);
+                return false;
+            }
+        }
+        page = ByteBuffer.allocate(header.getPageSize());
+        pages = new ChannelPageFile(channel, header.getPageSize(), header.getPageSize());
+        pageno = 0;
+        pagesLeft = header.getNumPages();
+        if (SharedScans.isEnabled()) {
+            /** start where a running scan of the file is and wrap around **/
+            shared = true;
+            pageno = SharedScans.attach(filename);
+            if (pageno >= pagesLeft) pageno = 0;
+        }
+        slot = 0;
+        pageLoaded = false;
         return true;
     }
 
@@ -58,15 +253,351 @@ public class Scan extends Operator {
      * Next operator - get a tuple from the file
      **/
     public Batch next() {
+        if (!started) {
+            started = true;
+            startReadAhead();
+        }
+        if (readAhead != null) {
+            Batch tuples = null;
+            try {
+                tuples = readAhead.next();
+            } catch (IOException e) {
+                System.err.println("Scan:Error reading " + filename);
+                System.exit(1);
+            }
+            if (tuples == null) close();
+            return tuples;
+        }
         /** The file reached its end and no more to read **/
         if (eos) {
             close();
             return null;
         }
-        Batch tuples = new Batch(batchsize);
+        return readBatch();
+    }
+
+    /**
+     * Hands the reading of the batches to a background thread
+     * * if the BufferManager grants read-ahead buffers
+     **/
+    private void startReadAhead() {
+        prefetch = BufferManager.reservePrefetch();
+        if (prefetch == 0) return;
+        readAhead = new ReadAhead(filename, prefetch, () -> eos ? null : readBatch());
+        readAhead.start();
+    }
+
+    /**
+     * Reads the next batch from the file, the last one is flagged with eos
+     **/
+    private Batch readBatch() {
+        if (channel == null) {
+            return nextSerialized();
+        }
+        Batch tuples = pool.acquire();
+        while (!tuples.isFull()) {
+            if (!pageLoaded) {
+                if (pagesLeft == 0) {
+                    eos = true;
+                    return tuples;
+                }
+                int num = nextPage();
+                if (!mayMatch(num)) continue;
+                readPage(num);
+                current = num;
+                preparePage();
+            }
+            while (slot < pageSlots && !tuples.isFull()) {
+                if (qualifies(slot)) {
+                    addSlot(tuples, slot);
+                }
+                slot++;
+            }
+            if (slot == pageSlots) {
+                pageLoaded = false;
+            }
+        }
+        return tuples;
+    }
+
+    /**
+     * Number of the next page to be read, wrapping around
+     * * to the first page for a shared scan
+     **/
+    private int nextPage() {
+        int num = pageno;
+        pageno = (pageno + 1) % header.getNumPages();
+        pagesLeft--;
+        if (shared) SharedScans.report(filename, num);
+        return num;
+    }
+
+    /**
+     * Whether the zone map allows the page to hold a tuple satisfying every condition
+     **/
+    private boolean mayMatch(int num) {
+        if (zones == null || num >= zones.getNumPages()) return true;
+        for (int k = 0; k < condIndex.length; ++k) {
+            if (!zones.mayMatch(num, condIndex[k], conditions.get(k).getExprType(), constants[k])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The attributes left to the row fetcher: the late attributes that
+     * * no condition of the scan needs. Null if there are none or late
+     * * materialization is off.
+     **/
+    private boolean[] lateColumns() {
+        if (!RowFetcher.isEnabled() || lateAttrs == null) return null;
+        boolean[] cols = new boolean[schema.getNumCols()];
+        boolean any = false;
+        for (Attribute attr : lateAttrs) {
+            int index = schema.indexOf(attr);
+            if (index != -1 && (needed == null || needed[index])) {
+                cols[index] = true;
+                any = true;
+            }
+        }
+        for (int col : condIndex) {
+            cols[col] = false;
+        }
+        if (bloom != null) {
+            for (int col : bloomIndex) {
+                cols[col] = false;
+            }
+        }
+        return any ? cols : null;
+    }
+
+    /**
+     * Attributes whose values must be read from a page: the output attributes
+     * * and the attributes of the conditions
+     **/
+    private boolean[] readNeeded() {
+        if (needed == null || (conditions.isEmpty() && bloom == null)) return needed;
+        boolean[] cols = needed.clone();
+        for (int col : condIndex) {
+            cols[col] = true;
+        }
+        if (bloom != null) {
+            for (int col : bloomIndex) {
+                cols[col] = true;
+            }
+        }
+        return cols;
+    }
+
+    /**
+     * Reads the page into the page buffer with a single positioned read,
+     * * or one read per group of needed minipages on PAX pages
+     **/
+    protected void readPage(int num) {
+        BufferPool pool = BufferManager.getBufferPool();
+        if (pool != null) {
+            readPooledPage(pool, num);
+            return;
+        }
+        long base = header.pageOffset(num);
+        try {
+            for (int r = 0; r < readRanges.length; r += 2) {
+                page.limit(readRanges[r + 1]);
+                page.position(readRanges[r]);
+                long pos = base + readRanges[r];
+                while (page.hasRemaining()) {
+                    int n = channel.read(page, pos);
+                    if (n < 0) break;
+                    pos += n;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Scan:Error reading " + filename);
+            System.exit(1);
+        }
+        slot = 0;
+        pageLoaded = true;
+    }
+
+    /**
+     * Pins the whole page in the buffer pool, the page buffer is the frame
+     * * itself until the next page is read or the scan is closed
+     **/
+    private void readPooledPage(BufferPool pool, int num) {
+        try {
+            if (frame != null) {
+                pool.unpin(frame);
+                frame = null;
+            }
+            frame = pool.pin(filename, num, pages);
+        } catch (IOException e) {
+            System.err.println("Scan:Error reading " + filename);
+            System.exit(1);
+        }
+        page = frame.getData();
+        slot = 0;
+        pageLoaded = true;
+    }
+
+    /**
+     * Parses the constants of the conditions once for the whole scan
+     **/
+    private boolean prepareConditions() {
+        condIndex = new int[conditions.size()];
+        constants = new Object[conditions.size()];
+        for (int k = 0; k < conditions.size(); ++k) {
+            Condition con = conditions.get(k);
+            condIndex[k] = schema.indexOf(con.getLhs());
+            String rhs = (String) con.getRhs();
+            int type = schema.typeOf(condIndex[k]);
+            try {
+                if (type == Attribute.INT) {
+                    constants[k] = Integer.parseInt(rhs);
+                } else if (type == Attribute.REAL) {
+                    constants[k] = Float.parseFloat(rhs);
+                } else {
+                    constants[k] = rhs;
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Scan: Malformed condition on " + con.getLhs());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets up the current page after it is read. On COMPRESSED pages
+     * * the chunks are located and the conditions evaluated on them.
+     **/
+    protected void preparePage() {
+        if (header.getLayout() != PageLayout.COMPRESSED) {
+            pageSlots = layout.getNumSlots();
+            return;
+        }
+        pageSlots = page.getInt(0);
+        int numCols = schema.getNumCols();
+        chunks = new ColumnChunk[numCols];
+        for (int i = 0; i < numCols; ++i) {
+            if (needed == null || needed[i]) {
+                chunks[i] = new ColumnChunk(page, PageLayout.chunkOffset(page, i), pageSlots, schema.typeOf(i));
+            }
+        }
+        match = null;
+        if (conditions.isEmpty()) return;
+        match = new boolean[pageSlots];
+        Arrays.fill(match, true);
+        for (int k = 0; k < condIndex.length; ++k) {
+            int col = condIndex[k];
+            if (chunks[col] == null) {
+                chunks[col] = new ColumnChunk(page, PageLayout.chunkOffset(page, col), pageSlots, schema.typeOf(col));
+            }
+            chunks[col].filter(conditions.get(k).getExprType(), constants[k], match);
+        }
+    }
+
+    /**
+     * Whether the slot of the current page holds a tuple to be output
+     **/
+    private boolean qualifies(int s) {
+        boolean compressed = header.getLayout() == PageLayout.COMPRESSED;
+        if (compressed) {
+            if (match != null && !match[s]) return false;
+        } else {
+            if (!layout.isUsed(page, s)) return false;
+            for (int k = 0; k < condIndex.length; ++k) {
+                if (!satisfies(layout.decodeValue(page, s, condIndex[k]), k)) return false;
+            }
+        }
+        if (bloom == null) return true;
+        int hash = 0;
+        for (int k = 0; k < bloomIndex.length; ++k) {
+            int col = bloomIndex[k];
+            Object value = compressed ? chunkOf(col).get(s) : layout.decodeValue(page, s, col);
+            if (value == null) return false;
+            hash = Partition.hashStep(hash, k, value);
+        }
+        return bloom.mightContain(hash);
+    }
+
+    /**
+     * Chunk of an attribute of the current COMPRESSED page, located when first needed
+     **/
+    private ColumnChunk chunkOf(int col) {
+        if (chunks[col] == null) {
+            chunks[col] = new ColumnChunk(page, PageLayout.chunkOffset(page, col), pageSlots, schema.typeOf(col));
+        }
+        return chunks[col];
+    }
+
+    /**
+     * Whether the value satisfies the k-th condition, null values never do
+     **/
+    private boolean satisfies(Object value, int k) {
+        if (value == null) return false;
+        int exprtype = conditions.get(k).getExprType();
+        int type = schema.typeOf(condIndex[k]);
+        if (type == Attribute.INT) {
+            return ColumnChunk.compare(Integer.compare((Integer) value, (Integer) constants[k]), exprtype);
+        } else if (type == Attribute.REAL) {
+            return ColumnChunk.compare((Float) value, (Float) constants[k], exprtype);
+        }
+        return ColumnChunk.compare(((String) value).compareTo((String) constants[k]), exprtype);
+    }
+
+    private Tuple decodeSlot(int s) {
+        if (header.getLayout() != PageLayout.COMPRESSED) {
+            return layout.decode(page, s, needed);
+        }
+        ArrayList<Object> data = new ArrayList<>(chunks.length);
+        for (int i = 0; i < chunks.length; ++i) {
+            data.add((needed == null || needed[i]) ? chunks[i].get(s) : null);
+        }
+        return new Tuple(data);
+    }
+
+    /**
+     * Adds the tuple of the slot to the batch. The values of a vector batch
+     * * are copied from the page into its arrays without building a tuple.
+     **/
+    private void addSlot(Batch tuples, int s) {
+        if (lazy != null) {
+            tuples.add(new RowIdTuple(fetcher, current, s, decodeSlot(s).data()));
+            return;
+        }
+        if (!(tuples instanceof VectorBatch)) {
+            tuples.add(decodeSlot(s));
+            return;
+        }
+        VectorBatch vec = (VectorBatch) tuples;
+        boolean compressed = header.getLayout() == PageLayout.COMPRESSED;
+        int row = vec.newRow();
+        for (int i = 0; i < types.length; ++i) {
+            if ((needed != null && !needed[i]) || (compressed ? chunks[i].isNull(s) : layout.isNull(page, s, i))) {
+                vec.setNull(row, i);
+            } else if (types[i] == Attribute.INT) {
+                vec.setInt(row, i, compressed ? chunks[i].getInt(s) : layout.getInt(page, s, i));
+            } else if (types[i] == Attribute.REAL) {
+                vec.setFloat(row, i, compressed ? chunks[i].getFloat(s) : layout.getFloat(page, s, i));
+            } else {
+                vec.setString(row, i, compressed ? chunks[i].getString(s) : (String) layout.decodeValue(page, s, i));
+            }
+        }
+    }
+
+    /**
+     * Next batch of a table file written with Java serialization
+     **/
+    private Batch nextSerialized() {
+        Batch tuples = pool.acquire();
         while (!tuples.isFull()) {
             try {
                 Tuple data = (Tuple) in.readObject();
+                if (bloom != null && (Partition.hasNullKey(data, bloomIndex)
+                        || !bloom.mightContain(Partition.hashOf(data, bloomIndex)))) {
+                    continue;
+                }
                 tuples.add(data);
             } catch (ClassNotFoundException cnf) {
                 System.err.println("Scan:Class not found for reading file  " + filename);
@@ -90,8 +621,29 @@ public class Scan extends Operator {
      * * is already reached
      **/
     public boolean close() {
+        if (readAhead != null) {
+            readAhead.close();
+            readAhead = null;
+            BufferManager.releasePrefetch(prefetch);
+            prefetch = 0;
+        }
+        if (shared) {
+            SharedScans.detach(filename);
+            shared = false;
+        }
         try {
-            in.close();
+            if (frame != null) {
+                BufferManager.getBufferPool().unpin(frame);
+                frame = null;
+            }
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            if (in != null) {
+                in.close();
+                in = null;
+            }
         } catch (IOException e) {
             System.err.println("Scan: Error closing " + filename);
             return false;
@@ -103,6 +655,8 @@ public class Scan extends Operator {
         String newtab = tabname;
         Scan newscan = new Scan(newtab, optype);
         newscan.setSchema((Schema) schema.clone());
+        newscan.setNeededAttributes(attrset);
+        newscan.setLateAttributes(lateAttrs);
         return newscan;
     }
 
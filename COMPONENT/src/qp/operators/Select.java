@@ -6,6 +6,8 @@ package qp.operators;
 
 import qp.utils.*;
 
+import java.util.Arrays;
+
 public class Select extends Operator {
 
     Operator base;  // Base operator
@@ -18,8 +20,9 @@ public class Select extends Operator {
      **/
     boolean eos;     // Indicate whether end of stream is reached or not
     Batch inbatch;   // This is the current input buffer
-    Batch outbatch;  // This is the current output buffer
-    int start;       // Cursor position in the input buffer
+    boolean pushed;  // Whether the scan below already evaluates the condition
+    Object constant; // Parsed constant of the condition, null if it compares two attributes
+    boolean[] match; // Whether each row of a vector input batch qualifies
 
     /**
      * constructor
@@ -51,11 +54,22 @@ public class Select extends Operator {
      **/
     public boolean open() {
         eos = false;  // Since the stream is just opened
-        start = 0;    // Set the cursor to starting position in input buffer
 
         /** Set number of tuples per page**/
         int tuplesize = schema.getTupleSize();
-        batchsize = Batch.getPageSize() / tuplesize;
+        batchsize = Batch.getVectorCapacity(tuplesize);
+
+        /** a condition with a constant is handed to the scan of a compressed
+         ** table, which evaluates it on the encoded values
+         **/
+        Operator op = base;
+        while (op instanceof Select) {
+            op = ((Select) op).getBase();
+        }
+        if (op instanceof Scan && !pushed) {
+            pushed = ((Scan) op).addCondition(con);
+        }
+        constant = parseConstant();
 
         if (base.open())
             return true;
@@ -66,52 +80,57 @@ public class Select extends Operator {
     /**
      * returns a batch of tuples that satisfies the
      * * condition specified on the tuples coming from base operator
-     * * NOTE: This operation is performed on the fly
+     * * NOTE: This operation is performed on the fly. The tuples are not
+     * * copied: the input batch is returned with a selection vector of
+     * * the tuples that qualify, batches without any are skipped.
      **/
     public Batch next() {
-        int i = 0;
         if (eos) {
             close();
             return null;
         }
 
-        /** An output buffer is initiated **/
-        outbatch = new Batch(batchsize);
+        while (true) {
+            inbatch = base.next();
+            /** There is no more incoming pages from base operator **/
+            if (inbatch == null) {
+                eos = true;
+                return null;
+            }
+            if (pushed) {
+                return inbatch;
+            }
 
-        /** keep on checking the incoming pages until
-         ** the output buffer is full
-         **/
-        while (!outbatch.isFull()) {
-            if (start == 0) {
-                inbatch = base.next();
-                /** There is no more incoming pages from base operator **/
-                if (inbatch == null) {
-                    eos = true;
-                    return outbatch;
+            int[] positions = inbatch.selectionArray();
+            int count = 0;
+            if (inbatch instanceof VectorBatch && constant != null) {
+                /** the condition is evaluated on the column array **/
+                VectorBatch vec = (VectorBatch) inbatch;
+                if (match == null || match.length < vec.getNumRows()) {
+                    match = new boolean[vec.getNumRows()];
+                }
+                Arrays.fill(match, 0, vec.getNumRows(), false);
+                for (int i = 0; i < vec.size(); ++i) {
+                    match[vec.position(i)] = true;
+                }
+                vec.filter(schema.indexOf(con.getLhs()), con.getExprType(), constant, match);
+                for (int i = 0; i < vec.size(); ++i) {
+                    if (match[vec.position(i)]) positions[count++] = vec.position(i);
+                }
+            } else {
+                for (int i = 0; i < inbatch.size(); ++i) {
+                    if (checkCondition(inbatch.get(i))) positions[count++] = inbatch.position(i);
                 }
             }
 
-            /** Continue this for loop until this page is fully observed
-             ** or the output buffer is full
-             **/
-            for (i = start; i < inbatch.size() && (!outbatch.isFull()); ++i) {
-                Tuple present = inbatch.get(i);
-                /** If the condition is satisfied then
-                 ** this tuple is added tot he output buffer
-                 **/
-                if (checkCondition(present))
-                    outbatch.add(present);
+            if (count == inbatch.size()) {
+                return inbatch;
+            } else if (count > 0) {
+                inbatch.select(positions, count);
+                return inbatch;
             }
-
-            /** Modify the cursor to the position requierd
-             ** when the base operator is called next time;
-             **/
-            if (i == inbatch.size())
-                start = 0;
-            else
-                start = i;
+            inbatch.release();
         }
-        return outbatch;
     }
 
     /**
@@ -123,6 +142,26 @@ public class Select extends Operator {
         return true;
     }
 
+    /**
+     * The constant of the condition as an Integer, Float or String
+     * * of the attribute type, null if there is none or it is malformed
+     **/
+    private Object parseConstant() {
+        if (!(con.getRhs() instanceof String)) return null;
+        String rhs = (String) con.getRhs();
+        int datatype = schema.typeOf(con.getLhs());
+        try {
+            if (datatype == Attribute.INT) {
+                return Integer.parseInt(rhs);
+            } else if (datatype == Attribute.REAL) {
+                return Float.parseFloat(rhs);
+            }
+            return rhs;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     /**
      * To check whether the selection condition is satisfied for
      * * the present tuple
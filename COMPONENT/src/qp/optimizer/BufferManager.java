@@ -4,6 +4,12 @@
 
 package qp.optimizer;
 
+import qp.utils.BufferPool;
+import qp.utils.ClockPolicy;
+import qp.utils.LRUKPolicy;
+import qp.utils.ReplacementPolicy;
+import qp.utils.TwoQueuePolicy;
+
 public class BufferManager {
 
     static int numBuffer;
@@ -11,10 +17,56 @@ public class BufferManager {
 
     static int buffPerJoin;
 
+    /**
+     * Read-ahead: every table scan or TupleReader may keep up to prefetchDepth
+     * * pages decoded ahead of its consumer. The spill files of the joins and
+     * * OrderBy are still read synchronously. These pages are buffers too, so
+     * * they are set aside from numBuffer before the rest is divided among the
+     * * joins, and handed out to the readers until the set-aside runs out.
+     **/
+    static int prefetchDepth = 0;    // Pages read ahead per reader, 0 to read synchronously
+    static int prefetchBuffers;      // Buffers set aside for read-ahead
+    static int prefetchInUse;        // Buffers currently held by readers
+
+    /**
+     * Buffer pool: once a replacement policy is chosen, the pages of table
+     * * and temporary files are read and written through a pool of numBuffer
+     * * frames, so files read again by the query are served from memory
+     **/
+    static String policyName = null;  // CLOCK, LRUK, TWOQ or null for no buffer pool
+    static BufferPool bufferPool;     // Pool of the query, null if there is none
+
+    public static final String CLOCK = "clock";
+    public static final String LRUK = "lruk";
+    public static final String TWOQ = "2q";      // Scan resistant, see TwoQueuePolicy
+
     public BufferManager(int numBuffer, int numJoin) {
+        this(numBuffer, numJoin, 0);
+    }
+
+    /**
+     * numReaders: number of readers that may read ahead at the same time,
+     * * e.g. the number of tables scanned by the query
+     **/
+    public BufferManager(int numBuffer, int numJoin, int numReaders) {
         this.numBuffer = numBuffer;
         this.numJoin = numJoin;
-        buffPerJoin = numBuffer / numJoin;
+        /** at least 3 buffers per join are never given up for read-ahead **/
+        int spare = (numJoin > 0) ? numBuffer - 3 * numJoin : numBuffer;
+        long wanted = (long) prefetchDepth * numReaders;
+        prefetchBuffers = (int) Math.max(0, Math.min(wanted, spare));
+        prefetchInUse = 0;
+        buffPerJoin = (numJoin > 0) ? (numBuffer - prefetchBuffers) / numJoin : 0;
+        bufferPool = (policyName != null) ? new BufferPool(numBuffer, createPolicy(numBuffer)) : null;
+    }
+
+    private static ReplacementPolicy createPolicy(int numFrames) {
+        if (LRUK.equals(policyName)) {
+            return new LRUKPolicy(numFrames);
+        } else if (TWOQ.equals(policyName)) {
+            return new TwoQueuePolicy(numFrames);
+        }
+        return new ClockPolicy(numFrames);
     }
 
     public static int getBuffersPerJoin() {
@@ -25,4 +77,44 @@ public class BufferManager {
         return numBuffer;
     }
 
+    public static void setPrefetchDepth(int depth) {
+        prefetchDepth = Math.max(0, depth);
+    }
+
+    public static int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    /**
+     * Chooses the replacement policy of the buffer pool, null for no pool.
+     * * Returns false if the policy is unknown.
+     **/
+    public static boolean setReplacementPolicy(String name) {
+        if (name != null && !name.equals(CLOCK) && !name.equals(LRUK) && !name.equals(TWOQ)) return false;
+        policyName = name;
+        return true;
+    }
+
+    public static BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Hands out up to prefetchDepth read-ahead buffers to a reader.
+     * * Returns the number granted, 0 if the reader has to read synchronously.
+     **/
+    public static synchronized int reservePrefetch() {
+        int granted = Math.min(prefetchDepth, prefetchBuffers - prefetchInUse);
+        if (granted <= 0) return 0;
+        prefetchInUse += granted;
+        return granted;
+    }
+
+    /**
+     * Returns read-ahead buffers obtained with reservePrefetch
+     **/
+    public static synchronized void releasePrefetch(int num) {
+        prefetchInUse = Math.max(0, prefetchInUse - num);
+    }
+
 }
@@ -9,7 +9,10 @@ import qp.operators.*;
 import qp.utils.Attribute;
 import qp.utils.Batch;
 import qp.utils.Condition;
+import qp.utils.PageLayout;
 import qp.utils.Schema;
+import qp.utils.TableHeader;
+import qp.utils.TableStats;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -35,9 +38,16 @@ public class PlanCost {
      **/
     HashMap<Attribute, Long> ht;
 
+    /**
+     * Statistics of the base table attributes read from the
+     * * <tablename>.xstat files written by the loader, if any
+     **/
+    HashMap<Attribute, TableStats.Column> colstats;
+
 
     public PlanCost() {
         ht = new HashMap<>();
+        colstats = new HashMap<>();
         cost = 0;
     }
 
@@ -173,6 +183,20 @@ public class PlanCost {
             case JoinType.HASHJOIN:
                 joincost = 3 * leftpages + 3 * rightpages;
                 break;
+            case JoinType.HYBRIDHASH:
+                /** Of the (numbuff-1)/2 partitions, those that fit in the pages
+                 ** the spilled ones leave are joined without being written **/
+                long parts = Math.max(2, (numbuff - 1) / 2);
+                if (rightpages <= numbuff - 1) {
+                    joincost = leftpages + rightpages;
+                } else {
+                    double partpages = (double) rightpages / parts;
+                    long kept = (partpages <= 1) ? parts
+                            : Math.min(parts, Math.max(0, (long) Math.floor((numbuff - 1 - parts) / (partpages - 1))));
+                    double spilled = 1 - (double) kept / parts;
+                    joincost = leftpages + rightpages + (long) Math.ceil(2 * spilled * (leftpages + rightpages));
+                }
+                break;
             default:
                 System.out.println("join type is not supported");
                 return 0;
@@ -208,10 +232,33 @@ public class PlanCost {
 
         long outtuples;
         /** Calculate the number of tuples in result **/
+        TableStats.Column stats = colstats.get(fullattr);
         if (exprtype == Condition.EQUAL) {
             outtuples = (long) Math.ceil((double) intuples / (double) numdistinct);
         } else if (exprtype == Condition.NOTEQUAL) {
             outtuples = (long) Math.ceil(intuples - ((double) intuples / (double) numdistinct));
+        } else if (stats != null && stats.hasHistogram() && con.getRhs() instanceof String) {
+            /** range selectivity from the equi-depth histogram of the attribute **/
+            double c;
+            try {
+                c = Double.parseDouble((String) con.getRhs());
+            } catch (NumberFormatException e) {
+                c = Double.NaN;
+            }
+            double fraction = 0.5;
+            if (!Double.isNaN(c)) {
+                double nonnull = stats.nonNullFraction();
+                if (exprtype == Condition.LESSTHAN) {
+                    fraction = stats.fractionBelow(c, false);
+                } else if (exprtype == Condition.LTOE) {
+                    fraction = stats.fractionBelow(c, true);
+                } else if (exprtype == Condition.GREATERTHAN) {
+                    fraction = nonnull - stats.fractionBelow(c, true);
+                } else if (exprtype == Condition.GTOE) {
+                    fraction = nonnull - stats.fractionBelow(c, false);
+                }
+            }
+            outtuples = (long) Math.ceil(Math.max(0, fraction) * intuples);
         } else {
             outtuples = (long) Math.ceil(0.5 * intuples);
         }
@@ -281,10 +328,38 @@ public class PlanCost {
             ht.put(attr, distinctValues);
         }
 
-        /** Number of tuples per page**/
-        long tuplesize = schema.getTupleSize();
-        long pagesize = Math.max(Batch.getPageSize() / tuplesize, 1);
-        long numpages = (long) Math.ceil((double) numtuples / (double) pagesize);
+        /** Tables loaded by ConvertTxtToTbl also have histograms **/
+        TableStats.Column[] xstats = TableStats.read(tablename, schema);
+        if (xstats != null) {
+            for (int i = 0; i < numAttr; ++i) {
+                colstats.put(schema.getAttribute(i), xstats[i]);
+            }
+        }
+
+        /** Paged table files record how many pages they really occupy,
+         ** otherwise estimate it from the number of tuples per page
+         **/
+        long numpages;
+        TableHeader header = TableHeader.read(tablename + ".tbl");
+        if (header != null) {
+            numpages = header.getNumPages();
+            /** PAX pages are only read for the minipages of the needed attributes **/
+            if (header.getLayout() == PageLayout.PAX && node.getNeededAttributes() != null) {
+                PageLayout layout = new PageLayout(schema, header.getPageSize(), PageLayout.PAX);
+                long neededbytes = 0;
+                for (int i = 0; i < numAttr; ++i) {
+                    if (node.getNeededAttributes().contains(schema.getAttribute(i))) {
+                        neededbytes += layout.getFieldSize(i);
+                    }
+                }
+                double fraction = (double) neededbytes / (double) layout.getSlotSize();
+                numpages = (long) Math.ceil(fraction * numpages);
+            }
+        } else {
+            long tuplesize = schema.getTupleSize();
+            long pagesize = Math.max(Batch.getPageSize() / tuplesize, 1);
+            numpages = (long) Math.ceil((double) numtuples / (double) pagesize);
+        }
 
         cost = cost + numpages;
 
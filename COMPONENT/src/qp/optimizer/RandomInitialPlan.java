@@ -25,7 +25,8 @@ public class RandomInitialPlan {
     ArrayList<Attribute> groupbylist;
     ArrayList<Attribute> orderbylist;
 
-    int numJoin;            // Number of joins in this query
+    int numJoin;            // Number of join conditions in this query
+    int numJoinOps;         // Number of join operators, conditions between tables already joined being merged
     HashMap<String, Operator> tab_op_hash;  // Table name to the Operator
     Operator root;          // Root of the query plan tree
 
@@ -38,13 +39,41 @@ public class RandomInitialPlan {
         groupbylist = sqlquery.getGroupByList();
         orderbylist = sqlquery.getOrderByList();
         numJoin = joinlist.size();
+        numJoinOps = countJoinOps();
     }
 
     /**
-     * number of join conditions
+     * number of join operators in the plans, each joining two sets of tables
+     * * on every condition between them
      **/
     public int getNumJoins() {
-        return numJoin;
+        return numJoinOps;
+    }
+
+    /**
+     * Counts the join conditions that connect tables not yet connected by the
+     * * previous ones, whatever the order the plan considers them in
+     **/
+    private int countJoinOps() {
+        HashMap<String, String> parent = new HashMap<>();
+        int count = 0;
+        for (Condition cn : joinlist) {
+            String lefttab = findSet(parent, cn.getLhs().getTabName());
+            String righttab = findSet(parent, ((Attribute) cn.getRhs()).getTabName());
+            if (!lefttab.equals(righttab)) {
+                parent.put(lefttab, righttab);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String findSet(HashMap<String, String> parent, String tabname) {
+        String p;
+        while ((p = parent.get(tabname)) != null) {
+            tabname = p;
+        }
+        return tabname;
     }
 
     /**
@@ -97,6 +126,7 @@ public class RandomInitialPlan {
         for (int i = 0; i < numtab; ++i) {  // For each table in from list
             String tabname = fromlist.get(i);
             Scan op1 = new Scan(tabname, OpType.SCAN);
+            op1.setNeededAttributes(getReferencedAttributes(tabname));
             tempop = op1;
 
             /** Read the schema of the table from tablename.md file
@@ -107,6 +137,7 @@ public class RandomInitialPlan {
                 ObjectInputStream _if = new ObjectInputStream(new FileInputStream(filename));
                 Schema schm = (Schema) _if.readObject();
                 op1.setSchema(schm);
+                op1.setLateAttributes(getLateAttributes(tabname, schm));
                 _if.close();
             } catch (Exception e) {
                 System.err.println("RandomInitialPlan:Error reading Schema of the table " + filename);
@@ -128,6 +159,67 @@ public class RandomInitialPlan {
 
     }
 
+    /**
+     * Attributes of the table that the plan refers to in the project list,
+     * * the conditions or the order by list. Returns null if the query
+     * * projects every attribute (SELECT *), as then all of them are needed.
+     **/
+    private ArrayList<Attribute> getReferencedAttributes(String tabname) {
+        if (projectlist == null || projectlist.isEmpty()) {
+            return null;
+        }
+        ArrayList<Attribute> referenced = new ArrayList<>();
+        for (Attribute attr : projectlist) {
+            addReferencedAttribute(referenced, tabname, attr.getBaseAttribute());
+        }
+        for (Condition cn : sqlquery.getConditionList()) {
+            addReferencedAttribute(referenced, tabname, cn.getLhs());
+            if (cn.getRhs() instanceof Attribute) {
+                addReferencedAttribute(referenced, tabname, (Attribute) cn.getRhs());
+            }
+        }
+        for (Attribute attr : orderbylist) {
+            addReferencedAttribute(referenced, tabname, attr);
+        }
+        return referenced;
+    }
+
+    /**
+     * Attributes of the table that only the project list refers to, every
+     * * attribute for SELECT *. Under joins these may be fetched by row id
+     * * once a tuple reaches the result. Returns null without joins, or if
+     * * Distinct compares whole tuples.
+     **/
+    private ArrayList<Attribute> getLateAttributes(String tabname, Schema schema) {
+        if (joinlist.isEmpty() || sqlquery.isDistinct()) {
+            return null;
+        }
+        ArrayList<Attribute> late = new ArrayList<>();
+        if (projectlist == null || projectlist.isEmpty()) {
+            late.addAll(schema.getAttList());
+        } else {
+            for (Attribute attr : projectlist) {
+                addReferencedAttribute(late, tabname, attr.getBaseAttribute());
+            }
+        }
+        for (Condition cn : sqlquery.getConditionList()) {
+            late.remove(cn.getLhs());
+            if (cn.getRhs() instanceof Attribute) {
+                late.remove(cn.getRhs());
+            }
+        }
+        for (Attribute attr : orderbylist) {
+            late.remove(attr);
+        }
+        return late;
+    }
+
+    private void addReferencedAttribute(ArrayList<Attribute> referenced, String tabname, Attribute attr) {
+        if (attr.getTabName().equals(tabname) && !referenced.contains(attr)) {
+            referenced.add(attr);
+        }
+    }
+
     /**
      * Create Selection Operators for each of the
      * * selection condition mentioned in Condition list
@@ -159,6 +251,7 @@ public class RandomInitialPlan {
     public void createJoinOp() {
         BitSet bitCList = new BitSet(numJoin);
         int jnnum = RandNumb.randInt(0, numJoin - 1);
+        int numCreated = 0;
         Join jn = null;
 
         /** Repeat until all the join conditions are considered **/
@@ -174,8 +267,14 @@ public class RandomInitialPlan {
             String righttab = ((Attribute) cn.getRhs()).getTabName();
             Operator left = (Operator) tab_op_hash.get(lefttab);
             Operator right = (Operator) tab_op_hash.get(righttab);
+            if (left == right) {
+                /** both tables are already joined, the condition is added to that join **/
+                addToJoin(left, (Condition) cn.clone());
+                bitCList.set(jnnum);
+                continue;
+            }
             jn = new Join(left, right, cn, OpType.JOIN);
-            jn.setNodeIndex(jnnum);
+            jn.setNodeIndex(numCreated++);
             Schema newsche = left.getSchema().joinWith(right.getSchema());
             jn.setSchema(newsche);
 
@@ -195,6 +294,31 @@ public class RandomInitialPlan {
             root = jn;
     }
 
+    /**
+     * Adds a join condition to the join below op that has one of its
+     * * tables on each side, flipping it to match the sides
+     **/
+    private void addToJoin(Operator op, Condition cn) {
+        while (op.getOpType() == OpType.JOIN) {
+            Join jn = (Join) op;
+            Schema leftschema = jn.getLeft().getSchema();
+            Schema rightschema = jn.getRight().getSchema();
+            Attribute lhs = cn.getLhs();
+            Attribute rhs = (Attribute) cn.getRhs();
+            if (leftschema.contains(lhs) && rightschema.contains(rhs)) {
+                jn.addCondition(cn);
+                return;
+            } else if (leftschema.contains(rhs) && rightschema.contains(lhs)) {
+                cn.flip();
+                jn.addCondition(cn);
+                return;
+            }
+            op = leftschema.contains(lhs) ? jn.getLeft() : jn.getRight();
+        }
+        System.out.println("RandomInitialPlan: no join for condition between tables already joined");
+        System.exit(1);
+    }
+
     public void createProjectOp() {
         Operator base = root;
         if (projectlist == null)
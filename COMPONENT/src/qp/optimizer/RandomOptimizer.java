@@ -10,6 +10,7 @@ import qp.utils.Attribute;
 import qp.utils.Condition;
 import qp.utils.RandNumb;
 import qp.utils.SQLQuery;
+import qp.utils.Schema;
 
 import java.util.ArrayList;
 
@@ -65,6 +66,7 @@ public class RandomOptimizer {
                     bnj.setNumBuff(numbuff);
                     return bnj;
                 case JoinType.HASHJOIN:
+                case JoinType.HYBRIDHASH:
                     HashJoin hashJoin = new HashJoin((Join) node);
                     hashJoin.setLeft(left);
                     hashJoin.setRight(right);
@@ -89,6 +91,13 @@ public class RandomOptimizer {
             Operator base = makeExecPlan(((OrderBy) node).getBase());
             ((OrderBy) node).setBase(base);
             return node;
+        } else if (node.getOpType() == OpType.SCAN) {
+            /** Map the table file into memory if it fits the address space,
+             ** unless its pages are to be cached in the buffer pool **/
+            if (BufferManager.getBufferPool() == null && MappedScan.isMappable(((Scan) node).getTabName())) {
+                return new MappedScan((Scan) node);
+            }
+            return node;
         } else {
             return node;
         }
@@ -355,7 +364,9 @@ public class RandomOptimizer {
         Operator right = node.getRight();
         node.setLeft(right);
         node.setRight(left);
-        node.getCondition().flip();
+        for (Condition cn : node.getConditionList()) {
+            cn.flip();
+        }
         modifySchema(root);
         return root;
     }
@@ -397,38 +408,42 @@ public class RandomOptimizer {
         Operator right = op.getRight();
         Operator leftleft = left.getLeft();
         Operator leftright = left.getRight();
-        Attribute leftAttr = op.getCondition().getLhs();
         Join temp;
 
-        if (leftright.getSchema().contains(leftAttr)) {
+        if (allContain(leftright.getSchema(), op.getConditionList(), true)) {
             System.out.println("----------------CASE 1-----------------");
             /** CASE 1 :  ( A X a1b1 B) X b4c4  C     =  A X a1b1 (B X b4c4 C)
              ** a1b1,  b4c4 are the join conditions at that join operator
              **/
-            temp = new Join(leftright, right, op.getCondition(), OpType.JOIN);
+            temp = new Join(leftright, right, op.getConditionList(), OpType.JOIN);
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
             op.setLeft(leftleft);
             op.setJoinType(left.getJoinType());
             op.setNodeIndex(left.getNodeIndex());
             op.setRight(temp);
-            op.setCondition(left.getCondition());
+            op.setConditionList(left.getConditionList());
 
-        } else {
+        } else if (allContain(leftleft.getSchema(), op.getConditionList(), true)) {
             System.out.println("--------------------CASE 2---------------");
             /**CASE 2:   ( A X a1b1 B) X a4c4  C     =  B X b1a1 (A X a4c4 C)
              ** a1b1,  a4c4 are the join conditions at that join operator
              **/
-            temp = new Join(leftleft, right, op.getCondition(), OpType.JOIN);
+            temp = new Join(leftleft, right, op.getConditionList(), OpType.JOIN);
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
             op.setLeft(leftright);
             op.setRight(temp);
             op.setJoinType(left.getJoinType());
             op.setNodeIndex(left.getNodeIndex());
-            Condition newcond = left.getCondition();
-            newcond.flip();
-            op.setCondition(newcond);
+            ArrayList<Condition> newconds = left.getConditionList();
+            for (Condition cn : newconds) {
+                cn.flip();
+            }
+            op.setConditionList(newconds);
+        } else {
+            /** the conditions refer to both A and B, they cannot move together **/
+            System.out.println("--------------Associativity not applicable---------------");
         }
     }
 
@@ -437,38 +452,54 @@ public class RandomOptimizer {
         Operator left = op.getLeft();
         Operator rightleft = right.getLeft();
         Operator rightright = right.getRight();
-        Attribute rightAttr = (Attribute) op.getCondition().getRhs();
         Join temp;
 
-        if (rightleft.getSchema().contains(rightAttr)) {
+        if (allContain(rightleft.getSchema(), op.getConditionList(), false)) {
             System.out.println("----------------------CASE 3-----------------------");
             /** CASE 3 :  A X a1b1 (B X b4c4  C)     =  (A X a1b1 B ) X b4c4 C
              ** a1b1,  b4c4 are the join conditions at that join operator
              **/
-            temp = new Join(left, rightleft, op.getCondition(), OpType.JOIN);
+            temp = new Join(left, rightleft, op.getConditionList(), OpType.JOIN);
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
             op.setLeft(temp);
             op.setRight(rightright);
             op.setJoinType(right.getJoinType());
             op.setNodeIndex(right.getNodeIndex());
-            op.setCondition(right.getCondition());
-        } else {
+            op.setConditionList(right.getConditionList());
+        } else if (allContain(rightright.getSchema(), op.getConditionList(), false)) {
             System.out.println("-----------------------------CASE 4-----------------");
             /** CASE 4 :  A X a1c1 (B X b4c4  C)     =  (A X a1c1 C ) X c4b4 B
              ** a1b1,  b4c4 are the join conditions at that join operator
              **/
-            temp = new Join(left, rightright, op.getCondition(), OpType.JOIN);
+            temp = new Join(left, rightright, op.getConditionList(), OpType.JOIN);
             temp.setJoinType(op.getJoinType());
             temp.setNodeIndex(op.getNodeIndex());
             op.setLeft(temp);
             op.setRight(rightleft);
             op.setJoinType(right.getJoinType());
             op.setNodeIndex(right.getNodeIndex());
-            Condition newcond = right.getCondition();
-            newcond.flip();
-            op.setCondition(newcond);
+            ArrayList<Condition> newconds = right.getConditionList();
+            for (Condition cn : newconds) {
+                cn.flip();
+            }
+            op.setConditionList(newconds);
+        } else {
+            /** the conditions refer to both B and C, they cannot move together **/
+            System.out.println("--------------Associativity not applicable---------------");
+        }
+    }
+
+    /**
+     * Whether the schema has the left attribute of every condition, or the
+     * * right one if lhs is false
+     **/
+    private static boolean allContain(Schema schema, ArrayList<Condition> conditions, boolean lhs) {
+        for (Condition cn : conditions) {
+            Attribute attr = lhs ? cn.getLhs() : (Attribute) cn.getRhs();
+            if (!schema.contains(attr)) return false;
         }
+        return true;
     }
 
     /**
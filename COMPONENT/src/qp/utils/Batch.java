@@ -11,7 +11,13 @@ public class Batch implements Serializable {
 
     int MAX_SIZE;             // Number of tuples per page
     static int PageSize;      // Number of bytes per page
+    static int VectorSize;    // Number of tuples per batch passed between operators, 0 to fill a page
     ArrayList<Tuple> tuples;  // The tuples in the page
+    int[] selection;          // Positions of the active tuples, null if every tuple is active
+    int numSelected;          // Number of active positions in selection
+    int[] positions;          // Array kept with the batch for its selections
+    BatchPool owner;          // Pool the batch goes back to when released, null if none
+    boolean released;         // Whether the consumer has released the batch
 
     /** Set number of bytes per page **/
     public static void setPageSize(int size) {
@@ -23,14 +29,126 @@ public class Batch implements Serializable {
         return PageSize;
     }
 
+    /** Set number of tuples per batch passed between operators, 0 for as many as fit a page **/
+    public static void setVectorSize(int size) {
+        VectorSize = size;
+    }
+
+    public static int getVectorSize() {
+        return VectorSize;
+    }
+
+    /** Number of tuples of the given size that fit a page, at least one **/
+    public static int getPageCapacity(int tuplesize) {
+        return Math.max(1, PageSize / Math.max(1, tuplesize));
+    }
+
+    /**
+     * Number of tuples of the given size per batch an operator outputs.
+     * * The page size only governs I/O: the batches handed from operator to
+     * * operator hold the vector size if one is set, a page worth otherwise.
+     **/
+    public static int getVectorCapacity(int tuplesize) {
+        return (VectorSize > 0) ? VectorSize : getPageCapacity(tuplesize);
+    }
+
     /** Number of tuples per page **/
     public Batch(int numtuple) {
         MAX_SIZE = numtuple;
         tuples = new ArrayList<>(MAX_SIZE);
     }
 
+    /**
+     * Called by the consumer once it is done with the batch, which may then
+     * * be cleared and refilled by its producer. See BatchPool.
+     **/
+    public void release() {
+        if (released) {
+            if (BatchPool.debug) throw new IllegalStateException("Batch released twice");
+            return;
+        }
+        released = true;
+        if (owner != null) owner.recycle(this);
+    }
+
+    /** In debug mode, fails if the batch is used after it was released **/
+    void checkLive() {
+        if (BatchPool.debug && released) throw new IllegalStateException("Batch used after release");
+    }
+
+    /* Selection vector: an operator that filters a batch may mark the positions
+     * of the tuples that qualify instead of copying them to a new batch. size()
+     * and get() then only see the active tuples, getNumRows() and getRow() see
+     * every tuple stored in the page.
+     */
+
+    /**
+     * Marks the first count entries of positions, ascending row numbers,
+     * * as the only active tuples of the page
+     **/
+    public void select(int[] positions, int count) {
+        selection = positions;
+        numSelected = count;
+    }
+
+    /**
+     * An array owned by the batch with room for a position per row, to be
+     * * filled and passed to select(). It is the array of the current selection
+     * * if there is one, which may be narrowed down in place as the ith active
+     * * position is never written before it is read.
+     **/
+    public int[] selectionArray() {
+        if (positions == null || positions.length < getNumRows()) {
+            int[] array = new int[getNumRows()];
+            if (selection != null && selection == positions) {
+                System.arraycopy(selection, 0, array, 0, numSelected);
+                selection = array;
+            }
+            positions = array;
+        }
+        return positions;
+    }
+
+    public boolean hasSelection() {
+        return selection != null;
+    }
+
+    /** Row number of the ith active tuple **/
+    public int position(int i) {
+        if (selection == null) return i;
+        if (i >= numSelected) throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + numSelected);
+        return selection[i];
+    }
+
+    /** Number of tuples stored in the page, active or not **/
+    public int getNumRows() {
+        return tuples.size();
+    }
+
+    /** The tuple stored at the row number, active or not **/
+    public Tuple getRow(int row) {
+        return tuples.get(row);
+    }
+
+    /**
+     * Drops the inactive tuples, so that the rows are the active tuples again
+     **/
+    void compact() {
+        if (selection == null) return;
+        ArrayList<Tuple> active = new ArrayList<>(size());
+        for (int i = 0; i < size(); ++i) {
+            active.add(get(i));
+        }
+        clear();
+        for (Tuple t : active) {
+            add(t);
+        }
+    }
+
     /** Insert the record in page at next free location **/
     public void add(Tuple t) {
+        checkLive();
+        compact();
         tuples.add(t);
     }
 
@@ -40,38 +158,47 @@ public class Batch implements Serializable {
 
     public void clear() {
         tuples.clear();
+        selection = null;
     }
 
     public boolean contains(Tuple t) {
-        return tuples.contains(t);
+        return indexOf(t) != -1;
     }
 
     public Tuple get(int i) {
-        return tuples.get(i);
+        checkLive();
+        return getRow(position(i));
     }
 
     public int indexOf(Tuple t) {
-        return tuples.indexOf(t);
+        if (selection == null) return tuples.indexOf(t);
+        for (int i = 0; i < numSelected; ++i) {
+            if (getRow(selection[i]).equals(t)) return i;
+        }
+        return -1;
     }
 
     public void add(Tuple t, int i) {
+        compact();
         tuples.add(i, t);
     }
 
     public boolean isEmpty() {
-        return tuples.isEmpty();
+        return size() == 0;
     }
 
     public void remove(int i) {
+        compact();
         tuples.remove(i);
     }
 
     public void set(Tuple t, int i) {
-        tuples.set(i, t);
+        tuples.set(position(i), t);
     }
 
     public int size() {
-        return tuples.size();
+        checkLive();
+        return (selection != null) ? numSelected : getNumRows();
     }
 
     public boolean isFull() {
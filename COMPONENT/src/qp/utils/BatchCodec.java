@@ -0,0 +1,274 @@
+/**
+ * Binary encoding of batches for temporary files
+ **/
+
+package qp.utils;
+
+import qp.optimizer.BufferManager;
+
+import java.io.*;
+import java.util.ArrayList;
+
+/**
+ * Writes and reads batches of tuples of a known schema without Java serialization.
+ * * A batch is written as its capacity and number of tuples, then each tuple as a
+ * * null bitmap followed by its non-null values: INT as 4 bytes, REAL as 4 bytes
+ * * and STRING as a 2 byte length and its (modified) UTF-8 bytes.
+ * * No class descriptors or wrapper objects end up in the file, so a spilled page
+ * * takes about as many bytes as the schema says the tuples need.
+ * * With late materialization a tuple is written as the tuples it was joined
+ * * from instead, each with the row id of its table row if it has one, and
+ * * only the values that were decoded: the lazy attributes are fetched again
+ * * from the table when the tuple is read back and projected.
+ **/
+public class BatchCodec {
+
+    final int[] types;     // Type of each attribute
+    final int nullBytes;   // Size of the null bitmap of a tuple
+
+    public BatchCodec(Schema schema) {
+        types = new int[schema.getNumCols()];
+        for (int i = 0; i < types.length; ++i) {
+            types[i] = schema.typeOf(i);
+        }
+        nullBytes = (types.length + 7) / 8;
+    }
+
+    /**
+     * Opens a buffered output stream on the file, appending to it if asked.
+     * * With a buffer pool the file is written through the pool, one block per page.
+     **/
+    public static DataOutputStream openOutput(String filename, boolean append) throws IOException {
+        BufferPool pool = BufferManager.getBufferPool();
+        OutputStream out = (pool != null)
+                ? new PooledOutputStream(pool, filename, bufferSize(), append)
+                : new FileOutputStream(filename, append);
+        return new DataOutputStream(new BufferedOutputStream(out, bufferSize()));
+    }
+
+    public static DataOutputStream openOutput(String filename) throws IOException {
+        return openOutput(filename, false);
+    }
+
+    public static DataInputStream openInput(String filename) throws IOException {
+        BufferPool pool = BufferManager.getBufferPool();
+        InputStream in = (pool != null)
+                ? new PooledInputStream(pool, filename, bufferSize())
+                : new FileInputStream(filename);
+        return new DataInputStream(new BufferedInputStream(in, bufferSize()));
+    }
+
+    /**
+     * Streams buffer one page, so every write or read hits the file a page at a time
+     **/
+    static int bufferSize() {
+        return Math.max(Batch.getPageSize(), 512);
+    }
+
+    public void write(Batch batch, DataOutput out) throws IOException {
+        out.writeInt(batch.capacity());
+        out.writeInt(batch.size());
+        byte[] nulls = new byte[nullBytes];
+        if (RowFetcher.isEnabled()) {
+            for (int t = 0; t < batch.size(); ++t) {
+                writeParts(batch.get(t), out);
+            }
+            return;
+        }
+        if (batch instanceof VectorBatch) {
+            writeVector((VectorBatch) batch, out, nulls);
+            return;
+        }
+        for (int t = 0; t < batch.size(); ++t) {
+            Tuple tuple = batch.get(t);
+            for (int i = 0; i < nullBytes; ++i) nulls[i] = 0;
+            for (int i = 0; i < types.length; ++i) {
+                if (tuple.dataAt(i) == null) nulls[i >> 3] |= (byte) (1 << (i & 7));
+            }
+            out.write(nulls);
+            for (int i = 0; i < types.length; ++i) {
+                Object value = tuple.dataAt(i);
+                if (value == null) continue;
+                if (types[i] == Attribute.INT) {
+                    out.writeInt((Integer) value);
+                } else if (types[i] == Attribute.REAL) {
+                    out.writeFloat((Float) value);
+                } else {
+                    out.writeUTF((String) value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a tuple as the number of tuples it was joined from, then each of them as
+     * * its row id, or -1 and its number of values, and its values as in a plain batch
+     **/
+    private void writeParts(Tuple tuple, DataOutput out) throws IOException {
+        ArrayList<Tuple> parts = new ArrayList<>();
+        split(tuple, parts);
+        out.writeByte(parts.size());
+        int offset = 0;
+        for (Tuple part : parts) {
+            int n = part.size();
+            boolean lazy = part instanceof RowIdTuple && !((RowIdTuple) part).isFetched();
+            if (lazy) {
+                RowIdTuple row = (RowIdTuple) part;
+                out.writeShort(row.getFetcher().getId());
+                out.writeInt(row.getPageNo());
+                out.writeShort(row.getSlot());
+            } else {
+                out.writeShort(-1);
+                out.writeShort(n);
+            }
+            /** the values of a row id tuple are taken from its list, which does not fetch **/
+            byte[] nulls = new byte[(n + 7) / 8];
+            for (int j = 0; j < n; ++j) {
+                Object value = lazy ? part._data.get(j) : part.dataAt(j);
+                if (value == null) nulls[j >> 3] |= (byte) (1 << (j & 7));
+            }
+            out.write(nulls);
+            for (int j = 0; j < n; ++j) {
+                Object value = lazy ? part._data.get(j) : part.dataAt(j);
+                if (value != null) writeValue(types[offset + j], value, out);
+            }
+            offset += n;
+        }
+    }
+
+    /**
+     * The tuples a joined tuple was built from, in the order of its values
+     **/
+    private static void split(Tuple tuple, ArrayList<Tuple> parts) {
+        if (tuple instanceof JoinedTuple) {
+            split(((JoinedTuple) tuple).getLeft(), parts);
+            split(((JoinedTuple) tuple).getRight(), parts);
+        } else {
+            parts.add(tuple);
+        }
+    }
+
+    private static void writeValue(int type, Object value, DataOutput out) throws IOException {
+        if (type == Attribute.INT) {
+            out.writeInt((Integer) value);
+        } else if (type == Attribute.REAL) {
+            out.writeFloat((Float) value);
+        } else {
+            out.writeUTF((String) value);
+        }
+    }
+
+    /**
+     * Reads a tuple written by writeParts
+     **/
+    private Tuple readParts(DataInput in) throws IOException {
+        int count = in.readByte();
+        Tuple tuple = null;
+        int offset = 0;
+        for (int k = 0; k < count; ++k) {
+            int id = in.readShort();
+            RowFetcher fetcher = null;
+            int pageno = 0;
+            int slot = 0;
+            int n;
+            if (id >= 0) {
+                fetcher = RowFetcher.get(id);
+                pageno = in.readInt();
+                slot = in.readUnsignedShort();
+                n = fetcher.getNumCols();
+            } else {
+                n = in.readShort();
+            }
+            byte[] nulls = new byte[(n + 7) / 8];
+            in.readFully(nulls);
+            ArrayList<Object> data = new ArrayList<>(n);
+            for (int j = 0; j < n; ++j) {
+                data.add(((nulls[j >> 3] & (1 << (j & 7))) != 0) ? null : readValue(types[offset + j], in));
+            }
+            Tuple part = (fetcher != null) ? new RowIdTuple(fetcher, pageno, slot, data) : new Tuple(data);
+            tuple = (tuple == null) ? part : new JoinedTuple(tuple, part);
+            offset += n;
+        }
+        return tuple;
+    }
+
+    private static Object readValue(int type, DataInput in) throws IOException {
+        if (type == Attribute.INT) {
+            return in.readInt();
+        } else if (type == Attribute.REAL) {
+            return in.readFloat();
+        }
+        return in.readUTF();
+    }
+
+    /**
+     * Writes the active rows of a vector batch straight from its arrays, in the same format
+     **/
+    private void writeVector(VectorBatch batch, DataOutput out, byte[] nulls) throws IOException {
+        for (int t = 0; t < batch.size(); ++t) {
+            int row = batch.position(t);
+            for (int i = 0; i < nullBytes; ++i) nulls[i] = 0;
+            for (int i = 0; i < types.length; ++i) {
+                if (batch.isNull(row, i)) nulls[i >> 3] |= (byte) (1 << (i & 7));
+            }
+            out.write(nulls);
+            for (int i = 0; i < types.length; ++i) {
+                if (batch.isNull(row, i)) continue;
+                if (types[i] == Attribute.INT) {
+                    out.writeInt(batch.getInt(row, i));
+                } else if (types[i] == Attribute.REAL) {
+                    out.writeFloat(batch.getFloat(row, i));
+                } else {
+                    out.writeUTF(batch.getString(row, i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the next batch. Throws EOFException at the end of the file
+     * * like ObjectInputStream.readObject does.
+     **/
+    public Batch read(DataInput in) throws IOException {
+        return read(in, null);
+    }
+
+    /**
+     * Reads the next batch into a batch of the pool, or a new one if pool is null
+     **/
+    public Batch read(DataInput in, BatchPool pool) throws IOException {
+        int capacity = in.readInt();
+        int size = in.readInt();
+        Batch batch;
+        if (pool != null) {
+            batch = pool.acquire();
+            batch.MAX_SIZE = capacity;
+        } else {
+            batch = new Batch(capacity);
+        }
+        if (RowFetcher.isEnabled()) {
+            for (int t = 0; t < size; ++t) {
+                batch.add(readParts(in));
+            }
+            return batch;
+        }
+        byte[] nulls = new byte[nullBytes];
+        for (int t = 0; t < size; ++t) {
+            in.readFully(nulls);
+            ArrayList<Object> data = new ArrayList<>(types.length);
+            for (int i = 0; i < types.length; ++i) {
+                if ((nulls[i >> 3] & (1 << (i & 7))) != 0) {
+                    data.add(null);
+                } else if (types[i] == Attribute.INT) {
+                    data.add(in.readInt());
+                } else if (types[i] == Attribute.REAL) {
+                    data.add(in.readFloat());
+                } else {
+                    data.add(in.readUTF());
+                }
+            }
+            batch.add(new Tuple(data));
+        }
+        return batch;
+    }
+}
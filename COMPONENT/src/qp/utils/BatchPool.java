@@ -0,0 +1,89 @@
+/**
+ * Recycles the batches an operator produces
+ **/
+
+package qp.utils;
+
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+/**
+ * A producer takes the batches it fills from its pool with acquire(), and
+ * * the consumer calls release() on a batch once it has read it and holds
+ * * no reference to it any more. The batch is then cleared and handed out
+ * * again by the next acquire(), keeping its backing arrays, so that a
+ * * pipeline in steady state fills the same few batches over and over.
+ * * A consumer that never releases a batch only leaves it to the garbage collector.
+ * * The tuples of a released batch stay valid, only the batch is reused.
+ * * In debug mode released batches are never handed out again, and any use
+ * * of one, or releasing it twice, throws an IllegalStateException.
+ **/
+public class BatchPool {
+
+    static boolean enabled = false;  // Whether released batches are reused
+    static boolean debug = false;    // Whether the use of released batches is detected
+
+    /** Set whether producers reuse the batches their consumers released **/
+    public static void setEnabled(boolean flag) {
+        enabled = flag;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Set whether released batches are kept out of use and checked **/
+    public static void setDebug(boolean flag) {
+        debug = flag;
+    }
+
+    public static boolean isDebug() {
+        return debug;
+    }
+
+    static final int MAX_FREE = 8;  // Released batches kept for reuse by one pool
+
+    final Supplier<Batch> factory;  // Creates a batch when none is free
+    final ArrayDeque<Batch> free;   // Released batches, cleared
+    long allocated;                 // Batches created by the factory
+    long reused;                    // Batches handed out again
+
+    public BatchPool(Supplier<Batch> factory) {
+        this.factory = factory;
+        free = new ArrayDeque<>();
+    }
+
+    /**
+     * An empty batch, a released one if there is one
+     **/
+    public synchronized Batch acquire() {
+        Batch batch = free.poll();
+        if (batch == null) {
+            batch = factory.get();
+            if (enabled || debug) batch.owner = this;
+            allocated++;
+        } else {
+            reused++;
+        }
+        batch.released = false;
+        return batch;
+    }
+
+    /**
+     * Takes back a batch released by its consumer
+     **/
+    synchronized void recycle(Batch batch) {
+        batch.clear();
+        if (enabled && !debug && free.size() < MAX_FREE) {
+            free.add(batch);
+        }
+    }
+
+    public synchronized long getAllocated() {
+        return allocated;
+    }
+
+    public synchronized long getReused() {
+        return reused;
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Bloom filter of the join keys of a hash join build input
+ **/
+
+package qp.utils;
+
+/**
+ * A hash join adds the hash code of the join attributes of every build
+ * * tuple, then hands the filter to the scan of its probe input, which drops
+ * * the tuples whose key hash the filter does not contain before they are
+ * * decoded, partitioned or spilled. A key that was added is never dropped,
+ * * others pass with a probability of at most about 2.5%, and the join discards them.
+ * * The filter takes one to two bytes per build tuple.
+ **/
+public class BloomFilter {
+
+    static boolean enabled = false;  // Whether hash joins filter their probe input
+
+    /** Set whether hash joins build a Bloom filter and push it to their probe input **/
+    public static void setEnabled(boolean flag) {
+        enabled = flag;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    static final int BITS_PER_KEY = 8;
+    static final int NUM_HASHES = 4;
+    static final int MAX_BITS = 1 << 30;
+
+    final long[] bits;    // The bit array, 64 bits per word
+    final int mask;       // Number of bits - 1, a power of 2
+
+    public BloomFilter(long expected) {
+        long wanted = Math.max(64, Math.min(MAX_BITS, expected * BITS_PER_KEY));
+        int numBits = Integer.highestOneBit((int) wanted - 1) << 1;
+        bits = new long[numBits >>> 6];
+        mask = numBits - 1;
+    }
+
+    /** First probe position of a hash code **/
+    static int mix1(int hash) {
+        int h = hash * 0x85EBCA6B;
+        return h ^ (h >>> 15);
+    }
+
+    /** Step between the probe positions of a hash code, always odd **/
+    static int mix2(int hash) {
+        int h = hash * 0xC2B2AE35;
+        return (h ^ (h >>> 13)) | 1;
+    }
+
+    public void add(int hash) {
+        int h1 = mix1(hash);
+        int h2 = mix2(hash);
+        for (int i = 0; i < NUM_HASHES; ++i) {
+            int bit = (h1 + i * h2) & mask;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * False if no key of this hash code was added
+     **/
+    public boolean mightContain(int hash) {
+        int h1 = mix1(hash);
+        int h2 = mix2(hash);
+        for (int i = 0; i < NUM_HASHES; ++i) {
+            int bit = (h1 + i * h2) & mask;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+}
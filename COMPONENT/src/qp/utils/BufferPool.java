@@ -0,0 +1,258 @@
+/**
+ * Caches pages of table and temporary files in a fixed number of frames
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Objects;
+
+/**
+ * A page is identified by its file name and page number. pin() returns the
+ * * frame holding the page, reading it into a frame on a miss; the caller
+ * * works on the frame's buffer and calls unpin() when done with it.
+ * * A pinned frame is never evicted. A frame whose page was changed is marked
+ * * dirty and written back before its frame is given to another page, or by
+ * * flush(). Which unpinned frame is given up is left to the ReplacementPolicy.
+ * * If every frame is pinned the page is read into a frame outside the pool,
+ * * which is dropped (or written back if dirty) as soon as it is unpinned.
+ * * All methods are synchronized, readers on background threads share the pool.
+ **/
+public class BufferPool {
+
+    /**
+     * Reads and writes the pages of one open file
+     **/
+    public interface PageFile {
+        /** Number of bytes of a page of the file **/
+        int getPageSize();
+
+        /** Reads the page into the buffer, returns the number of bytes read, 0 past the end of the file **/
+        int readPage(long pageno, ByteBuffer buf) throws IOException;
+
+        /** Writes the first length bytes of the buffer as the page **/
+        void writePage(long pageno, ByteBuffer buf, int length) throws IOException;
+    }
+
+    /**
+     * Identifies a page of a file
+     **/
+    static class PageId {
+        final String file;
+        final long pageno;
+
+        PageId(String file, long pageno) {
+            this.file = file;
+            this.pageno = pageno;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof PageId)) return false;
+            PageId other = (PageId) o;
+            return pageno == other.pageno && file.equals(other.file);
+        }
+
+        public int hashCode() {
+            return Objects.hash(file, pageno);
+        }
+    }
+
+    /**
+     * A frame of the pool with the page it holds
+     **/
+    public static class Frame {
+        final int index;      // Position in the pool, -1 outside the pool
+        PageId id;            // Page held, null if the frame is free
+        PageFile source;      // File the page is written back to
+        ByteBuffer data;      // Bytes of the page
+        int length;           // Number of valid bytes of the page
+        int pinCount;         // Number of users of the frame
+        boolean dirty;        // Whether the page was changed since it was read
+
+        Frame(int index) {
+            this.index = index;
+        }
+
+        public ByteBuffer getData() {
+            return data;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /** Records that the first length bytes of the page are valid **/
+        public void setLength(int length) {
+            this.length = length;
+        }
+
+        public boolean isPinned() {
+            return pinCount > 0;
+        }
+
+        public boolean isDirty() {
+            return dirty;
+        }
+
+        public void markDirty() {
+            dirty = true;
+        }
+    }
+
+    static final int SEQUENTIAL_GAP = 4;  // Largest step between pages of a sequential access
+
+    final Frame[] frames;
+    final HashMap<PageId, Frame> table;    // Frame of every page in the pool
+    final ReplacementPolicy policy;
+    final HashMap<String, Long> lastPage;  // Page of each file pinned last, to detect sequential access
+    int numFree;                           // Frames never used so far, taken in order
+    long hits;                             // Pins that found their page in the pool
+    long misses;                           // Pins that had to read their page
+
+    public BufferPool(int numFrames, ReplacementPolicy policy) {
+        frames = new Frame[Math.max(1, numFrames)];
+        for (int i = 0; i < frames.length; ++i) {
+            frames[i] = new Frame(i);
+        }
+        table = new HashMap<>();
+        this.policy = policy;
+        lastPage = new HashMap<>();
+        numFree = frames.length;
+    }
+
+    public int getNumFrames() {
+        return frames.length;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Pins the page of the file, reading it through source if it is not in the pool
+     **/
+    public synchronized Frame pin(String file, long pageno, PageFile source) throws IOException {
+        PageId id = new PageId(file, pageno);
+        boolean sequential = isSequential(file, pageno);
+        Frame frame = table.get(id);
+        if (frame != null) {
+            hits++;
+            frame.pinCount++;
+            /** the file that read the page may be closed, a clean page is written back through the caller's **/
+            if (!frame.dirty) frame.source = source;
+            policy.accessed(frame, sequential);
+            return frame;
+        }
+        misses++;
+        frame = freeFrame();
+        if (frame == null) {
+            frame = new Frame(-1);
+        }
+        frame.id = id;
+        frame.source = source;
+        frame.dirty = false;
+        frame.pinCount = 1;
+        int size = source.getPageSize();
+        if (frame.data == null || frame.data.capacity() < size) {
+            frame.data = ByteBuffer.allocate(size);
+        }
+        frame.data.clear();
+        frame.data.limit(size);
+        try {
+            frame.length = source.readPage(pageno, frame.data);
+        } catch (IOException e) {
+            if (frame.index != -1) release(frame);
+            throw e;
+        }
+        frame.data.clear();
+        frame.data.limit(size);
+        if (frame.index != -1) {
+            table.put(id, frame);
+            policy.loaded(frame, sequential);
+        }
+        return frame;
+    }
+
+    /**
+     * Whether the page follows the page of the file pinned last, allowing
+     * * for the few pages a scan may skip
+     **/
+    private boolean isSequential(String file, long pageno) {
+        Long last = lastPage.put(file, pageno);
+        return last != null && pageno > last && pageno <= last + SEQUENTIAL_GAP;
+    }
+
+    /**
+     * A frame for a new page: a frame never used, or the frame of an evicted page
+     **/
+    private Frame freeFrame() throws IOException {
+        if (numFree > 0) {
+            return frames[frames.length - numFree--];
+        }
+        int victim = policy.victim(frames);
+        if (victim == -1) return null;
+        Frame frame = frames[victim];
+        writeBack(frame);
+        table.remove(frame.id);
+        policy.removed(frame);
+        frame.id = null;
+        frame.source = null;
+        return frame;
+    }
+
+    private void writeBack(Frame frame) throws IOException {
+        if (!frame.dirty) return;
+        frame.source.writePage(frame.id.pageno, frame.data.duplicate(), frame.length);
+        frame.dirty = false;
+    }
+
+    /**
+     * Returns a frame obtained with pin(). Frames outside the pool are written back if dirty.
+     **/
+    public synchronized void unpin(Frame frame) throws IOException {
+        if (frame.pinCount > 0) frame.pinCount--;
+        if (frame.index == -1 && frame.pinCount == 0) {
+            writeBack(frame);
+        }
+    }
+
+    /**
+     * Writes back every dirty page of the file, which stays in the pool
+     **/
+    public synchronized void flush(String file) throws IOException {
+        for (Frame frame : frames) {
+            if (frame.id != null && frame.id.file.equals(file)) {
+                writeBack(frame);
+            }
+        }
+    }
+
+    /**
+     * Drops every page of the file without writing it back,
+     * * e.g. before the file is truncated or deleted. Pinned frames are
+     * * left alone, their user is still reading or writing them.
+     **/
+    public synchronized void invalidate(String file) {
+        lastPage.remove(file);
+        for (Frame frame : frames) {
+            if (frame.id != null && frame.id.file.equals(file) && frame.pinCount == 0) {
+                release(frame);
+            }
+        }
+    }
+
+    private void release(Frame frame) {
+        table.remove(frame.id);
+        frame.id = null;
+        policy.removed(frame);
+        frame.source = null;
+        frame.dirty = false;
+        frame.pinCount = 0;
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Pages of fixed size stored one after the other in a file
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Page p is stored at byte base + p * pageSize of the file, e.g. base is the
+ * * page size for a table file, whose first page is the header page.
+ **/
+public class ChannelPageFile implements BufferPool.PageFile {
+
+    final FileChannel channel;
+    final int pageSize;
+    final long base;
+
+    public ChannelPageFile(FileChannel channel, int pageSize, long base) {
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.base = base;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int readPage(long pageno, ByteBuffer buf) throws IOException {
+        long pos = base + pageno * pageSize;
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos + total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    public void writePage(long pageno, ByteBuffer buf, int length) throws IOException {
+        long pos = base + pageno * pageSize;
+        buf.limit(length);
+        buf.position(0);
+        while (buf.hasRemaining()) {
+            pos += channel.write(buf, pos);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Clock (second chance) replacement
+ **/
+
+package qp.utils;
+
+/**
+ * Every frame has a reference bit, set whenever its page is accessed.
+ * * The hand sweeps the frames in a circle: a referenced frame loses its bit
+ * * and is passed over once, the first unpinned frame without the bit is evicted.
+ **/
+public class ClockPolicy implements ReplacementPolicy {
+
+    final boolean[] referenced;  // Reference bit of each frame
+    int hand;                    // Next frame looked at
+
+    public ClockPolicy(int numFrames) {
+        referenced = new boolean[numFrames];
+        hand = 0;
+    }
+
+    public void loaded(BufferPool.Frame frame, boolean sequential) {
+        referenced[frame.index] = true;
+    }
+
+    public void accessed(BufferPool.Frame frame, boolean sequential) {
+        referenced[frame.index] = true;
+    }
+
+    public void removed(BufferPool.Frame frame) {
+        referenced[frame.index] = false;
+    }
+
+    public int victim(BufferPool.Frame[] frames) {
+        /** after one sweep every unpinned frame has lost its bit **/
+        for (int n = 0; n < 2 * frames.length; ++n) {
+            int frame = hand;
+            hand = (hand + 1) % frames.length;
+            if (frames[frame].isPinned()) continue;
+            if (!referenced[frame]) return frame;
+            referenced[frame] = false;
+        }
+        return -1;
+    }
+}
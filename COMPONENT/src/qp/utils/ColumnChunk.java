@@ -0,0 +1,312 @@
+/**
+ * Read access to the values of one attribute on a compressed page
+ **/
+
+package qp.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compressed page stores the values of each attribute in a chunk
+ * *   [encoding][has nulls][null bitmap, if any][payload]
+ * * with one of the following payloads for n values
+ * *   PLAIN: n plain values
+ * *   DICT:  dictionary size d, d plain values, code width b, n codes of b bits
+ * *   RLE:   number of runs r, r times a plain value and the run length
+ * *   FOR:   base value, width b, n offsets from the base of b bits (INT only)
+ * * A plain value is 4 bytes for INT and REAL, and a 2 byte length followed by
+ * * the UTF-8 bytes for STRING. Null values hold a filler value in the payload.
+ * *
+ * * Selection conditions with a constant are evaluated on the encoded data:
+ * * once per dictionary entry for DICT, once per run for RLE and on the packed
+ * * offsets for FOR, so values are only decoded for the tuples that qualify.
+ **/
+public class ColumnChunk {
+
+    public static final int PLAIN = 0;
+    public static final int DICT = 1;
+    public static final int RLE = 2;
+    public static final int FOR = 3;
+
+    ByteBuffer page;       // Page holding the chunk
+    int type;              // Attribute type
+    int numValues;         // Number of values in the chunk
+    int encoding;          // Encoding of the payload
+    int nullStart;         // Start of the null bitmap, -1 if there are no nulls
+
+    int[] positions;       // PLAIN/DICT: position of each plain value (dictionary entries for DICT)
+    int bits;              // DICT/FOR: width of the packed codes
+    int packedStart;       // DICT/FOR: start of the packed codes
+    int base;              // FOR: base value
+    int[] runEnds;         // RLE: index after the last value of each run
+    byte[] scratch;        // Buffer used to decode strings
+    String[] decoded;      // DICT/RLE of STRING: entries decoded so far
+
+    public ColumnChunk(ByteBuffer page, int offset, int numValues, int type) {
+        this.page = page;
+        this.type = type;
+        this.numValues = numValues;
+        int pos = offset;
+        encoding = page.get(pos++);
+        boolean hasNulls = page.get(pos++) != 0;
+        nullStart = -1;
+        if (hasNulls) {
+            nullStart = pos;
+            pos += (numValues + 7) / 8;
+        }
+        if (encoding == PLAIN) {
+            positions = new int[numValues];
+            for (int i = 0; i < numValues; ++i) {
+                positions[i] = pos;
+                pos += plainSize(pos);
+            }
+        } else if (encoding == DICT) {
+            int d = page.getInt(pos);
+            pos += 4;
+            positions = new int[d];
+            for (int i = 0; i < d; ++i) {
+                positions[i] = pos;
+                pos += plainSize(pos);
+            }
+            bits = page.get(pos++);
+            packedStart = pos;
+        } else if (encoding == RLE) {
+            int r = page.getInt(pos);
+            pos += 4;
+            positions = new int[r];
+            runEnds = new int[r];
+            int end = 0;
+            for (int i = 0; i < r; ++i) {
+                positions[i] = pos;
+                pos += plainSize(pos);
+                end += page.getInt(pos);
+                runEnds[i] = end;
+                pos += 4;
+            }
+        } else {
+            base = page.getInt(pos);
+            pos += 4;
+            bits = page.get(pos++);
+            packedStart = pos;
+        }
+    }
+
+    public int getEncoding() {
+        return encoding;
+    }
+
+    private int plainSize(int pos) {
+        if (type == Attribute.STRING) {
+            return 2 + page.getShort(pos);
+        }
+        return 4;
+    }
+
+    public boolean isNull(int row) {
+        return nullStart != -1 && (page.get(nullStart + (row >> 3)) & (1 << (row & 7))) != 0;
+    }
+
+    /**
+     * Reads the packed value at the given index, values are packed least significant bits first
+     **/
+    static long unpack(ByteBuffer page, int start, int bits, int index) {
+        if (bits == 0) return 0;
+        long bitpos = (long) index * bits;
+        int pos = start + (int) (bitpos >> 3);
+        int shift = (int) (bitpos & 7);
+        int nbytes = (shift + bits + 7) / 8;
+        long word = 0;
+        for (int i = 0; i < nbytes; ++i) {
+            word |= (page.get(pos + i) & 0xFFL) << (8 * i);
+        }
+        return (word >>> shift) & ((1L << bits) - 1);
+    }
+
+    private Object plainValue(int pos) {
+        if (type == Attribute.INT) {
+            return page.getInt(pos);
+        } else if (type == Attribute.REAL) {
+            return page.getFloat(pos);
+        }
+        int len = page.getShort(pos);
+        if (scratch == null || scratch.length < len) scratch = new byte[Math.max(len, 16)];
+        ByteBuffer data = page.duplicate();
+        data.position(pos + 2);
+        data.get(scratch, 0, len);
+        return new String(scratch, 0, len, StandardCharsets.UTF_8);
+    }
+
+    private int runOf(int row) {
+        int lo = 0;
+        int hi = runEnds.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (runEnds[mid] <= row) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Position of the plain value of the given row, not for FOR
+     **/
+    private int plainPosition(int row) {
+        if (encoding == PLAIN) {
+            return positions[row];
+        } else if (encoding == DICT) {
+            return positions[(int) unpack(page, packedStart, bits, row)];
+        }
+        return positions[runOf(row)];
+    }
+
+    /**
+     * Value of the given non-null row of an INT chunk, without boxing it
+     **/
+    public int getInt(int row) {
+        if (encoding == FOR) {
+            return (int) (base + unpack(page, packedStart, bits, row));
+        }
+        return page.getInt(plainPosition(row));
+    }
+
+    /**
+     * Value of the given non-null row of a REAL chunk, without boxing it
+     **/
+    public float getFloat(int row) {
+        return page.getFloat(plainPosition(row));
+    }
+
+    /**
+     * Value of the given non-null row of a STRING chunk. Every dictionary
+     * * entry or run is decoded once, rows sharing it share the String.
+     **/
+    public String getString(int row) {
+        if (encoding == PLAIN) {
+            return (String) plainValue(positions[row]);
+        }
+        int entry = (encoding == DICT) ? (int) unpack(page, packedStart, bits, row) : runOf(row);
+        if (decoded == null) decoded = new String[positions.length];
+        if (decoded[entry] == null) decoded[entry] = (String) plainValue(positions[entry]);
+        return decoded[entry];
+    }
+
+    /**
+     * Decodes the value of the given row
+     **/
+    public Object get(int row) {
+        if (isNull(row)) return null;
+        if (type == Attribute.STRING) {
+            return getString(row);
+        }
+        if (encoding == PLAIN) {
+            return plainValue(positions[row]);
+        } else if (encoding == DICT) {
+            return plainValue(positions[(int) unpack(page, packedStart, bits, row)]);
+        } else if (encoding == RLE) {
+            return plainValue(positions[runOf(row)]);
+        }
+        return (int) (base + unpack(page, packedStart, bits, row));
+    }
+
+    /**
+     * Clears match[row] for every row that does not satisfy
+     * * "value exprtype constant", e.g. value < constant for Condition.LESSTHAN.
+     * * The constant is an Integer, Float or String matching the attribute type.
+     * * Null values never qualify.
+     **/
+    public void filter(int exprtype, Object constant, boolean[] match) {
+        int ic = (type == Attribute.INT) ? (Integer) constant : 0;
+        float fc = (type == Attribute.REAL) ? (Float) constant : 0;
+        String sc = (type == Attribute.STRING) ? (String) constant : null;
+        if (encoding == DICT) {
+            boolean[] codeMatch = new boolean[positions.length];
+            for (int k = 0; k < positions.length; ++k) {
+                codeMatch[k] = satisfies(positions[k], exprtype, ic, fc, sc);
+            }
+            for (int row = 0; row < numValues; ++row) {
+                if (match[row] && !codeMatch[(int) unpack(page, packedStart, bits, row)]) match[row] = false;
+            }
+        } else if (encoding == RLE) {
+            int start = 0;
+            for (int r = 0; r < runEnds.length; ++r) {
+                if (!satisfies(positions[r], exprtype, ic, fc, sc)) {
+                    for (int row = start; row < runEnds[r]; ++row) match[row] = false;
+                }
+                start = runEnds[r];
+            }
+        } else if (encoding == FOR) {
+            long target = (long) ic - base;
+            for (int row = 0; row < numValues; ++row) {
+                if (match[row] && !compare(Long.compare(unpack(page, packedStart, bits, row), target), exprtype)) {
+                    match[row] = false;
+                }
+            }
+        } else {
+            for (int row = 0; row < numValues; ++row) {
+                if (match[row] && !satisfies(positions[row], exprtype, ic, fc, sc)) match[row] = false;
+            }
+        }
+        if (nullStart != -1) {
+            for (int row = 0; row < numValues; ++row) {
+                if (isNull(row)) match[row] = false;
+            }
+        }
+    }
+
+    /**
+     * Compares the plain value at pos with the constant without decoding it into an object
+     **/
+    private boolean satisfies(int pos, int exprtype, int ic, float fc, String sc) {
+        if (type == Attribute.INT) {
+            return compare(Integer.compare(page.getInt(pos), ic), exprtype);
+        } else if (type == Attribute.REAL) {
+            return compare(page.getFloat(pos), fc, exprtype);
+        }
+        return compare(((String) plainValue(pos)).compareTo(sc), exprtype);
+    }
+
+    /**
+     * Compares two REAL values with the same semantics as Select
+     **/
+    public static boolean compare(float v, float c, int exprtype) {
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return v < c;
+            case Condition.GREATERTHAN:
+                return v > c;
+            case Condition.LTOE:
+                return v <= c;
+            case Condition.GTOE:
+                return v >= c;
+            case Condition.EQUAL:
+                return v == c;
+            case Condition.NOTEQUAL:
+                return v != c;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Whether the outcome of a comparison satisfies the condition operator
+     **/
+    public static boolean compare(int flag, int exprtype) {
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return flag < 0;
+            case Condition.GREATERTHAN:
+                return flag > 0;
+            case Condition.LTOE:
+                return flag <= 0;
+            case Condition.GTOE:
+                return flag >= 0;
+            case Condition.EQUAL:
+                return flag == 0;
+            case Condition.NOTEQUAL:
+                return flag != 0;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * Collects the values of one attribute for a compressed page and encodes them
+ **/
+
+package qp.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The encoded size under every encoding is maintained incrementally while values
+ * * are added, so the loader can fill a page until it is full and then write each
+ * * attribute with whichever of PLAIN, DICT, RLE or FOR is smallest for that page.
+ * * See ColumnChunk for the format of the chunks.
+ **/
+public class ColumnEncoder {
+
+    static final int MAX_DICT = 1 << 16;  // Largest dictionary considered
+
+    final int type;                // Attribute type
+    ArrayList<Object> values;      // Values of the page, null for nulls
+    int nulls;                     // Number of nulls
+
+    long plainBytes;               // PLAIN payload size
+    HashMap<Object, Integer> dict; // Code of each distinct encoded value, null once too large
+    long dictBytes;                // Size of the dictionary entries
+    int runs;                      // Number of runs
+    long runBytes;                 // RLE payload size
+    Object last;                   // Value of the current run
+    long min;                      // Smallest non-null INT value
+    long max;                      // Largest non-null INT value
+
+    public ColumnEncoder(int type) {
+        this.type = type;
+        values = new ArrayList<>();
+        clear();
+    }
+
+    public int getNumValues() {
+        return values.size();
+    }
+
+    public void clear() {
+        values.clear();
+        nulls = 0;
+        plainBytes = 0;
+        dict = new HashMap<>();
+        dictBytes = 0;
+        runs = 0;
+        runBytes = 0;
+        last = null;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+    }
+
+    /**
+     * Value stored in the payload in place of a null when there is no previous value
+     **/
+    private Object filler() {
+        if (type == Attribute.INT) return 0;
+        if (type == Attribute.REAL) return 0f;
+        return "";
+    }
+
+    static int utf8Length(String s) {
+        int len = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c < 0x80) len += 1;
+            else if (c < 0x800) len += 2;
+            else if (Character.isHighSurrogate(c)) {
+                len += 4;
+                ++i;
+            } else len += 3;
+        }
+        return len;
+    }
+
+    private int plainSize(Object value) {
+        if (type == Attribute.STRING) {
+            return 2 + utf8Length((String) value);
+        }
+        return 4;
+    }
+
+    public void add(Object value) {
+        values.add(value);
+        Object effective = value;
+        if (value == null) {
+            nulls++;
+            effective = (last != null) ? last : filler();
+        } else if (type == Attribute.INT) {
+            int v = (Integer) value;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        /** the dictionary holds what write() encodes, so the filler of leading nulls too **/
+        if (dict != null && !dict.containsKey(effective)) {
+            if (dict.size() == MAX_DICT) {
+                dict = null;
+            } else {
+                dict.put(effective, dict.size());
+                dictBytes += plainSize(effective);
+            }
+        }
+        plainBytes += plainSize(effective);
+        if (last == null || !last.equals(effective)) {
+            runs++;
+            runBytes += plainSize(effective) + 4;
+            last = effective;
+        }
+    }
+
+    /**
+     * Drops the last value, used when it made the page overflow
+     **/
+    public void removeLast() {
+        ArrayList<Object> kept = new ArrayList<>(values.subList(0, values.size() - 1));
+        clear();
+        for (Object value : kept) {
+            add(value);
+        }
+    }
+
+    static int bitsFor(long range) {
+        return (range <= 0) ? 0 : 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    private long packedBytes(int bits) {
+        return ((long) values.size() * bits + 7) / 8;
+    }
+
+    private long encodedSize(int encoding) {
+        long size = 2 + ((nulls > 0) ? (values.size() + 7) / 8 : 0);
+        if (encoding == ColumnChunk.PLAIN) {
+            return size + plainBytes;
+        } else if (encoding == ColumnChunk.DICT) {
+            if (dict == null) return Long.MAX_VALUE;
+            return size + 4 + dictBytes + 1 + packedBytes(bitsFor(dict.size() - 1));
+        } else if (encoding == ColumnChunk.RLE) {
+            return size + 4 + runBytes;
+        } else {
+            if (type != Attribute.INT) return Long.MAX_VALUE;
+            long range = (max >= min) ? max - min : 0;
+            return size + 4 + 1 + packedBytes(bitsFor(range));
+        }
+    }
+
+    /**
+     * Encoding with the smallest size for the values added so far
+     **/
+    public int chooseEncoding() {
+        int best = ColumnChunk.PLAIN;
+        long bestSize = encodedSize(best);
+        for (int encoding = ColumnChunk.DICT; encoding <= ColumnChunk.FOR; ++encoding) {
+            long size = encodedSize(encoding);
+            if (size < bestSize) {
+                best = encoding;
+                bestSize = size;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Number of bytes the chunk takes when written
+     **/
+    public long size() {
+        return encodedSize(chooseEncoding());
+    }
+
+    private int writePlain(ByteBuffer page, int pos, Object value) {
+        if (type == Attribute.INT) {
+            page.putInt(pos, (Integer) value);
+            return pos + 4;
+        } else if (type == Attribute.REAL) {
+            page.putFloat(pos, (Float) value);
+            return pos + 4;
+        }
+        byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+        page.putShort(pos, (short) bytes.length);
+        ByteBuffer data = page.duplicate();
+        data.position(pos + 2);
+        data.put(bytes);
+        return pos + 2 + bytes.length;
+    }
+
+    /**
+     * Packs the codes with the given width, least significant bits first
+     **/
+    static int pack(ByteBuffer page, int pos, int bits, long[] codes, int n) {
+        long acc = 0;
+        int accBits = 0;
+        for (int i = 0; i < n; ++i) {
+            acc |= codes[i] << accBits;
+            accBits += bits;
+            while (accBits >= 8) {
+                page.put(pos++, (byte) acc);
+                acc >>>= 8;
+                accBits -= 8;
+            }
+            if (accBits > 0 && bits > 0 && accBits + bits > 64) {
+                page.put(pos++, (byte) acc);
+                acc >>>= 8;
+                accBits -= 8;
+            }
+        }
+        if (accBits > 0) {
+            page.put(pos++, (byte) acc);
+        }
+        return pos;
+    }
+
+    /**
+     * Writes the chunk at the given position of the page and returns the position after it
+     **/
+    public int write(ByteBuffer page, int pos) {
+        int n = values.size();
+        int encoding = chooseEncoding();
+        page.put(pos++, (byte) encoding);
+        page.put(pos++, (byte) ((nulls > 0) ? 1 : 0));
+        if (nulls > 0) {
+            int bitmap = (n + 7) / 8;
+            for (int i = 0; i < bitmap; ++i) page.put(pos + i, (byte) 0);
+            for (int i = 0; i < n; ++i) {
+                if (values.get(i) == null) {
+                    int b = pos + (i >> 3);
+                    page.put(b, (byte) (page.get(b) | (1 << (i & 7))));
+                }
+            }
+            pos += bitmap;
+        }
+
+        /** nulls repeat the previous value, or the filler if there is none **/
+        Object[] effective = new Object[n];
+        Object prev = null;
+        for (int i = 0; i < n; ++i) {
+            Object value = values.get(i);
+            if (value == null) value = (prev != null) ? prev : filler();
+            effective[i] = value;
+            prev = value;
+        }
+
+        if (encoding == ColumnChunk.PLAIN) {
+            for (int i = 0; i < n; ++i) {
+                pos = writePlain(page, pos, effective[i]);
+            }
+        } else if (encoding == ColumnChunk.DICT) {
+            HashMap<Object, Integer> codes = new HashMap<>();
+            ArrayList<Object> entries = new ArrayList<>();
+            long[] packed = new long[n];
+            for (int i = 0; i < n; ++i) {
+                Integer code = codes.get(effective[i]);
+                if (code == null) {
+                    code = entries.size();
+                    codes.put(effective[i], code);
+                    entries.add(effective[i]);
+                }
+                packed[i] = code;
+            }
+            page.putInt(pos, entries.size());
+            pos += 4;
+            for (Object entry : entries) {
+                pos = writePlain(page, pos, entry);
+            }
+            int bits = bitsFor(entries.size() - 1);
+            page.put(pos++, (byte) bits);
+            pos = pack(page, pos, bits, packed, n);
+        } else if (encoding == ColumnChunk.RLE) {
+            int countPos = pos;
+            pos += 4;
+            int numRuns = 0;
+            int i = 0;
+            while (i < n) {
+                int j = i + 1;
+                while (j < n && effective[j].equals(effective[i])) j++;
+                pos = writePlain(page, pos, effective[i]);
+                page.putInt(pos, j - i);
+                pos += 4;
+                numRuns++;
+                i = j;
+            }
+            page.putInt(countPos, numRuns);
+        } else {
+            int base = (max >= min) ? (int) min : 0;
+            int bits = bitsFor((max >= min) ? max - min : 0);
+            long[] packed = new long[n];
+            for (int i = 0; i < n; ++i) {
+                packed[i] = (values.get(i) == null) ? 0 : (long) (Integer) values.get(i) - base;
+            }
+            page.putInt(pos, base);
+            pos += 4;
+            page.put(pos++, (byte) bits);
+            pos = pack(page, pos, bits, packed, n);
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Hash table of tuples by an INT or REAL join attribute
+ **/
+
+package qp.utils;
+
+import java.util.Arrays;
+
+/**
+ * Build and probe table of a hash join whose join attribute is numeric.
+ * * Keys are ints, a REAL value being given by Float.floatToIntBits, which
+ * * compares values the way Float.equals does. The distinct keys are kept in
+ * * an int[] with open addressing and linear probing, and each slot heads a
+ * * chain of entries, the tuples of that key, held in two parallel arrays.
+ * * Nothing is boxed and there is no object per key or per tuple.
+ * * The tuples of a key are visited with first(key), then next(entry)
+ * * until it returns -1.
+ **/
+public class IntHashTable {
+
+    static final int EMPTY = -1;
+
+    int[] keys;               // Key of each slot
+    int[] heads;              // First entry of each slot, EMPTY if the slot is free
+    int mask;                 // Number of slots - 1, a power of 2
+    int numKeys;              // Number of slots in use
+    Tuple[] tuples;           // Tuple of each entry
+    int[] entryKeys;          // Key of each entry
+    int[] nexts;              // Next entry of the same key, EMPTY at the end of the chain
+    int numEntries;           // Number of entries
+
+    public IntHashTable(int expected) {
+        int slots = Integer.highestOneBit(Math.max(8, 2 * expected - 1)) << 1;
+        keys = new int[slots];
+        heads = new int[slots];
+        Arrays.fill(heads, EMPTY);
+        mask = slots - 1;
+        int entries = Math.max(8, expected);
+        tuples = new Tuple[entries];
+        entryKeys = new int[entries];
+        nexts = new int[entries];
+    }
+
+    /**
+     * The key of an Integer or Float value
+     **/
+    public static int keyOf(Object value) {
+        if (value instanceof Float) {
+            return Float.floatToIntBits((Float) value);
+        }
+        return (Integer) value;
+    }
+
+    /**
+     * Whether the table can join attributes of the two types
+     **/
+    public static boolean supports(int leftType, int rightType) {
+        return leftType == rightType && (leftType == Attribute.INT || leftType == Attribute.REAL);
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Slot of the key, or the free slot where it would go
+     **/
+    private int slotOf(int key) {
+        int slot = hash(key) & mask;
+        while (heads[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    public void put(int key, Tuple tuple) {
+        if (numEntries == tuples.length) {
+            int length = 2 * tuples.length;
+            tuples = Arrays.copyOf(tuples, length);
+            entryKeys = Arrays.copyOf(entryKeys, length);
+            nexts = Arrays.copyOf(nexts, length);
+        }
+        int slot = slotOf(key);
+        if (heads[slot] == EMPTY) {
+            if (2 * (numKeys + 1) > keys.length) {
+                rehash();
+                slot = slotOf(key);
+            }
+            keys[slot] = key;
+            numKeys++;
+        }
+        int entry = numEntries++;
+        tuples[entry] = tuple;
+        entryKeys[entry] = key;
+        nexts[entry] = heads[slot];
+        heads[slot] = entry;
+    }
+
+    /**
+     * Doubles the number of slots
+     **/
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[] oldHeads = heads;
+        keys = new int[2 * oldKeys.length];
+        heads = new int[2 * oldKeys.length];
+        Arrays.fill(heads, EMPTY);
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldHeads[i] != EMPTY) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                heads[slot] = oldHeads[i];
+            }
+        }
+    }
+
+    /**
+     * First entry of the key, EMPTY if it has none
+     **/
+    public int first(int key) {
+        int slot = hash(key) & mask;
+        while (heads[slot] != EMPTY) {
+            if (keys[slot] == key) return heads[slot];
+            slot = (slot + 1) & mask;
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Next entry of the same key, EMPTY after the last one
+     **/
+    public int next(int entry) {
+        return nexts[entry];
+    }
+
+    public Tuple tuple(int entry) {
+        return tuples[entry];
+    }
+
+    /** Key of an entry, entries are numbered from 0 in the order they were put **/
+    public int key(int entry) {
+        return entryKeys[entry];
+    }
+
+    public int size() {
+        return numEntries;
+    }
+
+    public boolean isEmpty() {
+        return numEntries == 0;
+    }
+
+    /**
+     * Empties the table, keeping its arrays
+     **/
+    public void clear() {
+        Arrays.fill(heads, EMPTY);
+        Arrays.fill(tuples, 0, numEntries, null);
+        numKeys = 0;
+        numEntries = 0;
+    }
+}
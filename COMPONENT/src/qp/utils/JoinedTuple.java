@@ -0,0 +1,63 @@
+/**
+ * Output tuple of a join referring to its input tuples
+ **/
+
+package qp.utils;
+
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+
+/**
+ * A JoinedTuple holds the left and the right tuple it was joined from
+ * * instead of a copy of their values: dataAt() reads from the side the
+ * * attribute comes from. A left tuple that matches many right tuples is
+ * * thus shared by all its output tuples. The values are only copied into
+ * * a list when data() is called, and such a tuple is written to an object
+ * * stream as a plain Tuple.
+ **/
+public class JoinedTuple extends Tuple {
+
+    final Tuple left;      // Tuple giving the first values
+    final Tuple right;     // Tuple giving the remaining values
+    final int leftSize;    // Number of values of the left tuple
+
+    public JoinedTuple(Tuple left, Tuple right) {
+        super(null);
+        this.left = left;
+        this.right = right;
+        this.leftSize = left.size();
+    }
+
+    public Tuple getLeft() {
+        return left;
+    }
+
+    public Tuple getRight() {
+        return right;
+    }
+
+    public Object dataAt(int index) {
+        return (index < leftSize) ? left.dataAt(index) : right.dataAt(index - leftSize);
+    }
+
+    public int size() {
+        return leftSize + right.size();
+    }
+
+    /**
+     * The values of both tuples, copied into a list when first asked for
+     **/
+    public ArrayList<Object> data() {
+        if (_data == null) {
+            ArrayList<Object> values = new ArrayList<>(size());
+            values.addAll(left.data());
+            values.addAll(right.data());
+            _data = values;
+        }
+        return _data;
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return new Tuple(data());
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * LRU-K replacement
+ **/
+
+package qp.utils;
+
+import java.util.Arrays;
+
+/**
+ * The policy keeps the times of the last K accesses to the page of each frame
+ * * and evicts the page whose K-th most recent access is the oldest. Pages
+ * * accessed fewer than K times count as infinitely old and go first, the
+ * * least recently used of them before the others. With K = 2 a page read
+ * * once by a scan is evicted before a page that is read over and over.
+ **/
+public class LRUKPolicy implements ReplacementPolicy {
+
+    final int k;               // Number of accesses remembered per frame
+    final long[][] history;    // Times of the last k accesses of each frame, most recent first
+    long clock;                // Logical time, advanced on every access
+
+    public LRUKPolicy(int numFrames) {
+        this(numFrames, 2);
+    }
+
+    public LRUKPolicy(int numFrames, int k) {
+        this.k = Math.max(1, k);
+        history = new long[numFrames][this.k];
+        clock = 0;
+    }
+
+    public void loaded(BufferPool.Frame frame, boolean sequential) {
+        Arrays.fill(history[frame.index], 0);
+        accessed(frame, sequential);
+    }
+
+    public void accessed(BufferPool.Frame frame, boolean sequential) {
+        long[] times = history[frame.index];
+        System.arraycopy(times, 0, times, 1, k - 1);
+        times[0] = ++clock;
+    }
+
+    public void removed(BufferPool.Frame frame) {
+        Arrays.fill(history[frame.index], 0);
+    }
+
+    public int victim(BufferPool.Frame[] frames) {
+        int best = -1;
+        for (int frame = 0; frame < frames.length; ++frame) {
+            if (frames[frame].isPinned()) continue;
+            if (best == -1 || older(frame, best)) best = frame;
+        }
+        return best;
+    }
+
+    /**
+     * Whether the backward K-distance of frame a is larger than that of frame b
+     **/
+    private boolean older(int a, int b) {
+        long ka = history[a][k - 1];
+        long kb = history[b][k - 1];
+        if (ka != kb) return ka < kb;
+        return history[a][0] < history[b][0];
+    }
+}
@@ -0,0 +1,328 @@
+/**
+ * Slotted page layout of a paged table file
+ **/
+
+package qp.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Each data page starts with a page header and a page directory
+ * * The page header holds the number of slots and the number of used slots.
+ * * The page directory is a bitmap with one bit per slot marking it as used.
+ * * Every attribute is stored in a fixed-width field sized from Attribute.getAttrSize():
+ * * INT and REAL fields take 4 bytes, STRING fields take a 2 byte length
+ * * followed by getAttrSize() bytes of UTF-8 data.
+ * *
+ * * ROW pages store whole tuples one after the other
+ * *   [page header][page directory][slot 0][slot 1]...[slot n-1]
+ * * where a slot is a null bitmap followed by one field per attribute.
+ * *
+ * * PAX pages group the values of each attribute together
+ * *   [page header][page directory][minipage 0][minipage 1]...[minipage m-1]
+ * * where minipage i is a null bitmap of the n slots followed by the n fields
+ * * of attribute i. A scan that needs few attributes only touches their minipages.
+ * *
+ * * COMPRESSED pages hold as many tuples as fit after compression
+ * *   [page header][chunk offsets][chunk 0][chunk 1]...[chunk m-1]
+ * * where both header fields hold the number of tuples, the chunk offsets give
+ * * the start of the chunk of each attribute and the chunks are described in
+ * * ColumnChunk. Values are not limited to fixed-width fields on these pages.
+ **/
+public class PageLayout {
+
+    public static final int ROW = 0;
+    public static final int PAX = 1;
+    public static final int COMPRESSED = 2;
+
+    public static final int PAGE_HEADER_SIZE = 8;  // numSlots + numUsed
+
+    final int type;           // ROW, PAX or COMPRESSED
+    final int pageSize;       // Number of bytes per page
+    final int numCols;        // Number of attributes per tuple
+    final int[] types;        // Type of each attribute
+    final int[] widths;       // Maximum number of data bytes of each attribute
+    final int[] fieldSizes;   // Number of bytes of the field of each attribute
+    final int[] offsets;      // ROW: offset of each field within a slot, PAX: start of each minipage
+    final int[] nullOffsets;  // PAX: start of the null bitmap of each minipage
+    final int nullBytes;      // Size of the null bitmap of a ROW slot
+    final int slotSize;       // Number of bytes per tuple
+    final int numSlots;       // Number of slots per page
+    final int directorySize;  // Number of bytes of the page directory
+
+    byte[] scratch;           // Buffer used to decode strings
+
+    public PageLayout(Schema schema, int pageSize) {
+        this(schema, pageSize, ROW);
+    }
+
+    public PageLayout(Schema schema, int pageSize, int type) {
+        this.type = type;
+        this.pageSize = pageSize;
+        numCols = schema.getNumCols();
+        types = new int[numCols];
+        widths = new int[numCols];
+        fieldSizes = new int[numCols];
+        offsets = new int[numCols];
+        nullOffsets = new int[numCols];
+        nullBytes = (numCols + 7) / 8;
+        int dataSize = 0;
+        int maxWidth = 0;
+        for (int i = 0; i < numCols; ++i) {
+            Attribute attr = schema.getAttribute(i);
+            types[i] = attr.getType();
+            if (types[i] == Attribute.STRING) {
+                widths[i] = attr.getAttrSize();
+                fieldSizes[i] = 2 + widths[i];
+            } else {
+                widths[i] = 4;
+                fieldSizes[i] = 4;
+            }
+            dataSize += fieldSizes[i];
+            maxWidth = Math.max(maxWidth, widths[i]);
+        }
+        slotSize = nullBytes + dataSize;
+        scratch = new byte[maxWidth];
+
+        /** largest number of slots whose directory, bitmaps and data fit in the page **/
+        int n = (int) (((long) (pageSize - PAGE_HEADER_SIZE) * 8) / ((long) slotSize * 8 + 1));
+        while (n > 0 && usedBytes(n, dataSize) > pageSize) {
+            n--;
+        }
+        numSlots = Math.max(n, 0);
+        directorySize = (numSlots + 7) / 8;
+
+        int offset = (type == PAX) ? PAGE_HEADER_SIZE + directorySize : nullBytes;
+        for (int i = 0; i < numCols; ++i) {
+            if (type == PAX) {
+                nullOffsets[i] = offset;
+                offset += directorySize;
+                offsets[i] = offset;
+                offset += numSlots * fieldSizes[i];
+            } else {
+                offsets[i] = offset;
+                offset += fieldSizes[i];
+            }
+        }
+    }
+
+    /**
+     * Number of bytes taken by n slots including header, directory and bitmaps
+     **/
+    private long usedBytes(int n, int dataSize) {
+        long bitmap = (n + 7) / 8;
+        if (type == PAX) {
+            return PAGE_HEADER_SIZE + bitmap * (numCols + 1) + (long) n * dataSize;
+        }
+        return PAGE_HEADER_SIZE + bitmap + (long) n * slotSize;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /**
+     * Number of bytes of the field of the given attribute
+     **/
+    public int getFieldSize(int col) {
+        return fieldSizes[col];
+    }
+
+    /**
+     * Resets the page to an empty page
+     **/
+    public void initPage(ByteBuffer page) {
+        int end = (type == PAX) ? pageSize : PAGE_HEADER_SIZE + directorySize;
+        for (int i = 0; i < end; ++i) {
+            page.put(i, (byte) 0);
+        }
+        page.putInt(0, numSlots);
+        page.putInt(4, 0);
+    }
+
+    /**
+     * Number of used slots in the page
+     **/
+    public int getNumTuples(ByteBuffer page) {
+        return page.getInt(4);
+    }
+
+    /**
+     * Start of the chunk of the given attribute on a COMPRESSED page
+     **/
+    public static int chunkOffset(ByteBuffer page, int col) {
+        return page.getInt(PAGE_HEADER_SIZE + 4 * col);
+    }
+
+    /**
+     * Whether the given slot holds a tuple according to the page directory
+     **/
+    public boolean isUsed(ByteBuffer page, int slot) {
+        return (page.get(PAGE_HEADER_SIZE + (slot >> 3)) & (1 << (slot & 7))) != 0;
+    }
+
+    /**
+     * Byte ranges of the page that have to be read to decode the
+     * * needed attributes, as pairs of start and end offsets.
+     * * Adjacent ranges are merged, ROW pages always need the whole page.
+     **/
+    public int[] getReadRanges(boolean[] needed) {
+        if (type != PAX || needed == null) {
+            return new int[]{0, pageSize};
+        }
+        int[] ranges = new int[2 * (numCols + 1)];
+        int n = 0;
+        ranges[n++] = 0;
+        ranges[n++] = PAGE_HEADER_SIZE + directorySize;
+        for (int i = 0; i < numCols; ++i) {
+            if (!needed[i]) continue;
+            int start = nullOffsets[i];
+            int end = offsets[i] + numSlots * fieldSizes[i];
+            if (ranges[n - 1] == start) {
+                ranges[n - 1] = end;
+            } else {
+                ranges[n++] = start;
+                ranges[n++] = end;
+            }
+        }
+        int[] result = new int[n];
+        System.arraycopy(ranges, 0, result, 0, n);
+        return result;
+    }
+
+    private int fieldOffset(int slot, int col) {
+        if (type == PAX) {
+            return offsets[col] + slot * fieldSizes[col];
+        }
+        return PAGE_HEADER_SIZE + directorySize + slot * slotSize + offsets[col];
+    }
+
+    private int nullByte(int slot, int col) {
+        if (type == PAX) {
+            return nullOffsets[col] + (slot >> 3);
+        }
+        return PAGE_HEADER_SIZE + directorySize + slot * slotSize + (col >> 3);
+    }
+
+    private int nullBit(int slot, int col) {
+        return 1 << (((type == PAX) ? slot : col) & 7);
+    }
+
+    /**
+     * Whether the given attribute of the slot is null
+     **/
+    public boolean isNull(ByteBuffer page, int slot, int col) {
+        return (page.get(nullByte(slot, col)) & nullBit(slot, col)) != 0;
+    }
+
+    /**
+     * Writes the tuple into the given slot and marks the slot as used
+     * * Returns false if a value does not fit into its field
+     **/
+    public boolean encode(Tuple tuple, ByteBuffer page, int slot) {
+        for (int i = 0; i < numCols; ++i) {
+            Object value = tuple.dataAt(i);
+            int pos = fieldOffset(slot, i);
+            int b = nullByte(slot, i);
+            if (value == null) {
+                page.put(b, (byte) (page.get(b) | nullBit(slot, i)));
+                continue;
+            }
+            page.put(b, (byte) (page.get(b) & ~nullBit(slot, i)));
+            if (types[i] == Attribute.INT) {
+                page.putInt(pos, (Integer) value);
+            } else if (types[i] == Attribute.REAL) {
+                page.putFloat(pos, (Float) value);
+            } else {
+                byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > widths[i]) return false;
+                page.putShort(pos, (short) bytes.length);
+                ByteBuffer data = page.duplicate();
+                data.position(pos + 2);
+                data.put(bytes);
+            }
+        }
+        int d = PAGE_HEADER_SIZE + (slot >> 3);
+        if (!isUsed(page, slot)) {
+            page.put(d, (byte) (page.get(d) | (1 << (slot & 7))));
+            page.putInt(4, page.getInt(4) + 1);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the tuple stored in the given slot
+     **/
+    public Tuple decode(ByteBuffer page, int slot) {
+        return decode(page, slot, null);
+    }
+
+    /**
+     * Reads the tuple stored in the given slot, decoding only the needed
+     * * attributes. The other attributes are left null.
+     **/
+    public Tuple decode(ByteBuffer page, int slot, boolean[] needed) {
+        ArrayList<Object> data = new ArrayList<>(numCols);
+        for (int i = 0; i < numCols; ++i) {
+            if (needed != null && !needed[i]) {
+                data.add(null);
+            } else {
+                data.add(decodeValue(page, slot, i));
+            }
+        }
+        return new Tuple(data);
+    }
+
+    /**
+     * Reads a non-null INT attribute of the given slot without boxing it
+     **/
+    public int getInt(ByteBuffer page, int slot, int col) {
+        return page.getInt(fieldOffset(slot, col));
+    }
+
+    /**
+     * Reads a non-null REAL attribute of the given slot without boxing it
+     **/
+    public float getFloat(ByteBuffer page, int slot, int col) {
+        return page.getFloat(fieldOffset(slot, col));
+    }
+
+    /**
+     * Reads a single attribute of the given slot
+     **/
+    public Object decodeValue(ByteBuffer page, int slot, int col) {
+        if (isNull(page, slot, col)) {
+            return null;
+        }
+        int pos = fieldOffset(slot, col);
+        if (types[col] == Attribute.INT) {
+            return page.getInt(pos);
+        } else if (types[col] == Attribute.REAL) {
+            return page.getFloat(pos);
+        } else {
+            int len = page.getShort(pos);
+            ByteBuffer data = page.duplicate();
+            data.position(pos + 2);
+            data.get(scratch, 0, len);
+            return new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Reads a file as a stream through the pages of a BufferPool
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The file is cut into blocks of the given size, each block is a page of the
+ * * pool. Only the block being read is pinned. A file that is read again, e.g.
+ * * the right input of a nested loop join, is served from the pool as long as
+ * * its blocks were not evicted.
+ **/
+public class PooledInputStream extends InputStream {
+
+    final BufferPool pool;
+    final String filename;
+    final FileChannel channel;
+    final ChannelPageFile pages;
+    final long size;                // Number of bytes of the file
+    long position;                  // Offset of the next byte to be read
+    BufferPool.Frame frame;         // Frame of the block being read, null if none
+    long block;                     // Number of the block in the frame
+
+    public PooledInputStream(BufferPool pool, String filename, int blockSize) throws IOException {
+        this.pool = pool;
+        this.filename = filename;
+        channel = new RandomAccessFile(filename, "r").getChannel();
+        pages = new ChannelPageFile(channel, blockSize, 0);
+        size = channel.size();
+        position = 0;
+    }
+
+    /**
+     * Pins the block holding the next byte, false at the end of the file
+     **/
+    private boolean fill() throws IOException {
+        if (position >= size) return false;
+        if (frame != null) {
+            pool.unpin(frame);
+            frame = null;
+        }
+        block = position / pages.getPageSize();
+        frame = pool.pin(filename, block, pages);
+        return remaining() > 0;
+    }
+
+    /**
+     * Number of bytes of the pinned block left to be read
+     **/
+    private int remaining() {
+        if (frame == null || block != position / pages.getPageSize()) return 0;
+        int offset = (int) (position - block * pages.getPageSize());
+        return Math.max(0, frame.getLength() - offset);
+    }
+
+    public int read() throws IOException {
+        if (remaining() == 0 && !fill()) return -1;
+        int offset = (int) (position - block * pages.getPageSize());
+        position++;
+        return frame.getData().get(offset) & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (remaining() == 0 && !fill()) return -1;
+        int n = Math.min(len, remaining());
+        ByteBuffer data = frame.getData().duplicate();
+        data.position((int) (position - block * pages.getPageSize()));
+        data.get(b, off, n);
+        position += n;
+        return n;
+    }
+
+    public long skip(long n) throws IOException {
+        long skipped = Math.max(0, Math.min(n, size - position));
+        position += skipped;
+        return skipped;
+    }
+
+    public void close() throws IOException {
+        if (frame != null) {
+            pool.unpin(frame);
+            frame = null;
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Writes a file as a stream into the pages of a BufferPool
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The file is cut into blocks of the given size, each block is a page of the
+ * * pool. The bytes are copied into the pinned frame of the current block,
+ * * which is marked dirty: it reaches the file when the pool evicts it or at
+ * * the latest when the stream is closed. The written blocks stay in the pool,
+ * * so a temporary file read back soon after is served from memory.
+ **/
+public class PooledOutputStream extends OutputStream {
+
+    final BufferPool pool;
+    final String filename;
+    final FileChannel channel;
+    final ChannelPageFile pages;
+    long position;                  // Offset of the next byte to be written
+    BufferPool.Frame frame;         // Frame of the block being written, null if none
+    long block;                     // Number of the block in the frame
+
+    public PooledOutputStream(BufferPool pool, String filename, int blockSize, boolean append) throws IOException {
+        this.pool = pool;
+        this.filename = filename;
+        RandomAccessFile raf = new RandomAccessFile(filename, "rw");
+        if (!append) {
+            raf.setLength(0);
+            /** pages cached for an earlier version of the file are stale **/
+            pool.invalidate(filename);
+        }
+        channel = raf.getChannel();
+        pages = new ChannelPageFile(channel, blockSize, 0);
+        position = channel.size();
+    }
+
+    /**
+     * Pins the block the next byte goes to
+     **/
+    private void fill() throws IOException {
+        if (frame != null) {
+            pool.unpin(frame);
+            frame = null;
+        }
+        block = position / pages.getPageSize();
+        frame = pool.pin(filename, block, pages);
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        int blockSize = pages.getPageSize();
+        while (len > 0) {
+            if (frame == null || block != position / blockSize) fill();
+            int offset = (int) (position - block * blockSize);
+            int n = Math.min(len, blockSize - offset);
+            ByteBuffer data = frame.getData().duplicate();
+            data.position(offset);
+            data.put(b, off, n);
+            frame.setLength(Math.max(frame.getLength(), offset + n));
+            frame.markDirty();
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes the dirty blocks to the file, they stay in the pool
+     **/
+    public void flush() throws IOException {
+        pool.flush(filename);
+    }
+
+    public void close() throws IOException {
+        if (frame != null) {
+            pool.unpin(frame);
+            frame = null;
+        }
+        pool.flush(filename);
+        channel.close();
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * Reads batches ahead of their consumer on a background thread
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ReadAhead runs a reader on its own thread and keeps up to depth batches
+ * * in a bounded queue, so the disk reads and decoding of a scan or spill file
+ * * overlap with the work of the operators consuming it. The reader returns
+ * * null at the end of its input. Each queued batch takes one buffer page,
+ * * which is why the depth is obtained from BufferManager.reservePrefetch().
+ **/
+public class ReadAhead {
+
+    /**
+     * Produces the batches, null at the end of the input
+     **/
+    public interface Reader {
+        Batch read() throws IOException;
+    }
+
+    static final Object END = new Object();  // Marks the end of the input in the queue
+
+    final Reader reader;
+    final ArrayBlockingQueue<Object> queue;  // Batches read ahead, END or the failure of the reader
+    final Thread thread;
+    volatile boolean stopped;                // Set by close() to stop the reader
+    boolean done;                            // Whether the consumer has seen the end
+
+    public ReadAhead(String name, int depth, Reader reader) {
+        this.reader = reader;
+        queue = new ArrayBlockingQueue<>(Math.max(1, depth));
+        thread = new Thread(this::run, "read-ahead " + name);
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    private void run() {
+        Object item;
+        try {
+            do {
+                Batch batch = reader.read();
+                item = (batch == null) ? END : batch;
+            } while (put(item) && item != END);
+        } catch (Throwable e) {
+            put(e);
+        }
+    }
+
+    /**
+     * Waits for room in the queue, gives up once the read-ahead is closed
+     **/
+    private boolean put(Object item) {
+        try {
+            while (!stopped) {
+                if (queue.offer(item, 10, TimeUnit.MILLISECONDS)) return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Next batch read ahead, waiting for the reader if the queue is empty.
+     * * Returns null at the end of the input.
+     **/
+    public Batch next() throws IOException {
+        if (done) return null;
+        Object item;
+        try {
+            item = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("read-ahead interrupted");
+        }
+        if (item == END) {
+            done = true;
+            return null;
+        }
+        if (item instanceof Throwable) {
+            done = true;
+            if (item instanceof IOException) throw (IOException) item;
+            throw new IOException((Throwable) item);
+        }
+        return (Batch) item;
+    }
+
+    /**
+     * Stops the reader and waits for it to finish, the batches left are dropped
+     **/
+    public void close() {
+        stopped = true;
+        queue.clear();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queue.clear();
+        done = true;
+    }
+}
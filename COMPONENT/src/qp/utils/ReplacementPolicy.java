@@ -0,0 +1,30 @@
+/**
+ * Chooses the frame of the buffer pool to be given to a new page
+ **/
+
+package qp.utils;
+
+/**
+ * The BufferPool tells its policy about every page placed in a frame,
+ * * every later access to it and every frame emptied. When all frames are
+ * * in use the policy picks the frame whose page is evicted, among the
+ * * frames that are not pinned.
+ * * An access is sequential if it follows the previous access to the same
+ * * file by a page or a few, as a scan or a spill file reader does.
+ **/
+public interface ReplacementPolicy {
+
+    /** A page was read into the frame **/
+    void loaded(BufferPool.Frame frame, boolean sequential);
+
+    /** The page in the frame was pinned again **/
+    void accessed(BufferPool.Frame frame, boolean sequential);
+
+    /** The frame no longer holds a page **/
+    void removed(BufferPool.Frame frame);
+
+    /**
+     * Index of the frame to be evicted, -1 if every frame is pinned
+     **/
+    int victim(BufferPool.Frame[] frames);
+}
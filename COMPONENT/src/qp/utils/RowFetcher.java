@@ -0,0 +1,154 @@
+/**
+ * Reads attributes of table rows by their row id
+ **/
+
+package qp.utils;
+
+import qp.optimizer.BufferManager;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * Late materialization: a scan under joins decodes only the attributes the
+ * * joins, selections and sorts look at and outputs RowIdTuples, which know
+ * * the page and slot of their row. The lazy attributes, only needed by the
+ * * final projection, are fetched through the RowFetcher of the scan when a
+ * * tuple that made it to the result is first read. Spill files of joins and
+ * * sorts store the row id instead of the lazy values.
+ * * Fetchers are numbered so that a row id read back from a spill file finds
+ * * its fetcher; they live until closeAll() at the end of the query.
+ **/
+public class RowFetcher {
+
+    static boolean enabled = false;  // Whether scans under joins defer their projected attributes
+
+    /** Set whether scans under joins leave the attributes only projected to the end **/
+    public static void setEnabled(boolean flag) {
+        enabled = flag;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    static final ArrayList<RowFetcher> fetchers = new ArrayList<>();  // Fetcher of each id
+
+    final int id;                // Number of the fetcher
+    final String filename;       // Table file the rows are read from
+    final Schema schema;         // Schema of the table
+    final boolean[] lazy;        // Whether each attribute is left to the fetcher
+    PageLayout layout;           // Layout of the data pages
+    FileChannel channel;         // Table file, opened on the first fetch
+    ChannelPageFile pages;       // Data pages of the file
+    ByteBuffer page;             // Copy of the page fetched last
+    int pageno;                  // Number of the page held in page, -1 if none
+    ColumnChunk[] chunks;        // COMPRESSED: chunks of the lazy attributes of the page
+
+    RowFetcher(int id, String filename, Schema schema, boolean[] lazy) {
+        this.id = id;
+        this.filename = filename;
+        this.schema = schema;
+        this.lazy = lazy;
+        pageno = -1;
+    }
+
+    /**
+     * A new fetcher for the lazy attributes of the table file
+     **/
+    public static synchronized RowFetcher create(String filename, Schema schema, boolean[] lazy) {
+        RowFetcher fetcher = new RowFetcher(fetchers.size(), filename, schema, lazy);
+        fetchers.add(fetcher);
+        return fetcher;
+    }
+
+    public static synchronized RowFetcher get(int id) {
+        return fetchers.get(id);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getNumCols() {
+        return lazy.length;
+    }
+
+    public boolean isLazy(int col) {
+        return lazy[col];
+    }
+
+    /**
+     * Sets the lazy attributes of the row in data, whose other values are kept
+     **/
+    public synchronized void fetch(int num, int slot, ArrayList<Object> data) {
+        try {
+            if (num != pageno) readPage(num);
+        } catch (IOException e) {
+            System.err.println("RowFetcher: Error reading " + filename);
+            System.exit(1);
+        }
+        for (int i = 0; i < lazy.length; ++i) {
+            if (!lazy[i]) continue;
+            Object value = (chunks != null) ? chunks[i].get(slot) : layout.decodeValue(page, slot, i);
+            data.set(i, value);
+        }
+    }
+
+    /**
+     * Reads a page, through the buffer pool if there is one
+     **/
+    private void readPage(int num) throws IOException {
+        if (channel == null) {
+            channel = new RandomAccessFile(filename, "r").getChannel();
+            TableHeader header = TableHeader.read(channel);
+            layout = new PageLayout(schema, header.getPageSize(), header.getLayout());
+            pages = new ChannelPageFile(channel, header.getPageSize(), header.getPageSize());
+            page = ByteBuffer.allocate(header.getPageSize());
+        }
+        BufferPool pool = BufferManager.getBufferPool();
+        page.clear();
+        if (pool != null) {
+            BufferPool.Frame frame = pool.pin(filename, num, pages);
+            ByteBuffer data = frame.getData().duplicate();
+            data.clear();
+            page.put(data);
+            page.clear();
+            pool.unpin(frame);
+        } else {
+            pages.readPage(num, page);
+            page.clear();
+        }
+        pageno = num;
+        chunks = null;
+        if (layout.getType() == PageLayout.COMPRESSED) {
+            int numSlots = page.getInt(0);
+            chunks = new ColumnChunk[lazy.length];
+            for (int i = 0; i < lazy.length; ++i) {
+                if (lazy[i]) {
+                    chunks[i] = new ColumnChunk(page, PageLayout.chunkOffset(page, i), numSlots, schema.typeOf(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the files of all fetchers, once the result has been written
+     **/
+    public static synchronized void closeAll() {
+        for (RowFetcher fetcher : fetchers) {
+            if (fetcher.channel == null) continue;
+            try {
+                fetcher.channel.close();
+            } catch (IOException e) {
+                System.err.println("RowFetcher: Error closing " + fetcher.filename);
+            }
+            fetcher.channel = null;
+            fetcher.pageno = -1;
+        }
+        fetchers.clear();
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Tuple of a table row whose projected attributes are read late
+ **/
+
+package qp.utils;
+
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+
+/**
+ * A RowIdTuple is output by a scan doing late materialization. Its list
+ * * holds the values the scan decoded and null for the lazy attributes,
+ * * which are fetched from the page and slot of the row by the RowFetcher
+ * * the first time one of them is read.
+ **/
+public class RowIdTuple extends Tuple {
+
+    final RowFetcher fetcher;  // Reads the lazy attributes
+    final int pageno;          // Page of the row in the table file
+    final int slot;            // Slot of the row in its page
+    boolean fetched;           // Whether the lazy attributes are in the list
+
+    public RowIdTuple(RowFetcher fetcher, int pageno, int slot, ArrayList<Object> data) {
+        super(data);
+        this.fetcher = fetcher;
+        this.pageno = pageno;
+        this.slot = slot;
+    }
+
+    public RowFetcher getFetcher() {
+        return fetcher;
+    }
+
+    public int getPageNo() {
+        return pageno;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public boolean isFetched() {
+        return fetched;
+    }
+
+    public Object dataAt(int index) {
+        if (!fetched && fetcher.isLazy(index)) fetch();
+        return _data.get(index);
+    }
+
+    public ArrayList<Object> data() {
+        if (!fetched) fetch();
+        return _data;
+    }
+
+    private void fetch() {
+        fetcher.fetch(pageno, slot, _data);
+        fetched = true;
+    }
+
+    private Object writeReplace() throws ObjectStreamException {
+        return new Tuple(data());
+    }
+}
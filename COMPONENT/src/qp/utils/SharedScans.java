@@ -0,0 +1,69 @@
+/**
+ * Lets scans of the same table file share their progress
+ **/
+
+package qp.utils;
+
+import java.util.HashMap;
+
+/**
+ * A scan that starts while another scan of the same file is running attaches
+ * * to it: it starts at the page the running scan read last, reads up to the
+ * * end of the file and then wraps around to the pages it missed. The scans
+ * * then ask for the same pages at about the same time, so each page is read
+ * * from disk once and served to the other scans from the buffer pool.
+ * * The tuples of a shared scan come out in a rotated order.
+ **/
+public class SharedScans {
+
+    static boolean enabled = false;  // Whether scans of the same file are synchronized
+
+    /** Set whether scans of a file attach to a scan of it already running **/
+    public static void setEnabled(boolean flag) {
+        enabled = flag;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Progress of the scans of one file
+     **/
+    static class Cursor {
+        int position;   // Page read last by one of the scans
+        int numScans;   // Number of scans attached
+    }
+
+    static final HashMap<String, Cursor> cursors = new HashMap<>();
+
+    /**
+     * Attaches a new scan of the file, returns the page it starts at
+     **/
+    public static synchronized int attach(String filename) {
+        Cursor cursor = cursors.get(filename);
+        if (cursor == null) {
+            cursor = new Cursor();
+            cursors.put(filename, cursor);
+        }
+        cursor.numScans++;
+        return (cursor.numScans > 1) ? cursor.position : 0;
+    }
+
+    /**
+     * Records the page a scan of the file is about to read
+     **/
+    public static synchronized void report(String filename, int pageno) {
+        Cursor cursor = cursors.get(filename);
+        if (cursor != null) cursor.position = pageno;
+    }
+
+    /**
+     * Detaches a scan of the file once it is closed
+     **/
+    public static synchronized void detach(String filename) {
+        Cursor cursor = cursors.get(filename);
+        if (cursor == null) return;
+        if (--cursor.numScans == 0) cursors.remove(filename);
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Header page of a paged table file (.tbl)
+ **/
+
+package qp.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The first page of every paged table file holds this header.
+ * * Data page i (counting from 0) starts at byte offset (i + 1) * pageSize,
+ * * so every data page is aligned to the page size of the file.
+ * * The zone map of the pages, if any, follows the last data page.
+ **/
+public class TableHeader {
+
+    public static final int MAGIC = 0x51505442;  // "QPTB"
+    public static final int VERSION = 1;
+    public static final int SIZE = 44;           // Number of bytes used in the header page
+
+    int pageSize;     // Number of bytes per page in this file
+    int slotSize;     // Number of bytes per tuple slot
+    int numCols;      // Number of attributes of the table
+    int numPages;     // Number of data pages (header page excluded)
+    long numTuples;   // Number of tuples stored in the file
+    int layout;       // PageLayout.ROW, PAX or COMPRESSED
+    long zoneMapOffset;  // Byte offset of the zone map, 0 if there is none
+
+    public TableHeader(int pageSize, int slotSize, int numCols) {
+        this(pageSize, slotSize, numCols, PageLayout.ROW);
+    }
+
+    public TableHeader(int pageSize, int slotSize, int numCols, int layout) {
+        this.pageSize = pageSize;
+        this.slotSize = slotSize;
+        this.numCols = numCols;
+        this.layout = layout;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    public int getNumCols() {
+        return numCols;
+    }
+
+    public int getNumPages() {
+        return numPages;
+    }
+
+    public void setNumPages(int num) {
+        numPages = num;
+    }
+
+    public int getLayout() {
+        return layout;
+    }
+
+    public long getNumTuples() {
+        return numTuples;
+    }
+
+    public void setNumTuples(long num) {
+        numTuples = num;
+    }
+
+    public long getZoneMapOffset() {
+        return zoneMapOffset;
+    }
+
+    public void setZoneMapOffset(long offset) {
+        zoneMapOffset = offset;
+    }
+
+    /**
+     * Byte offset of the given data page within the file
+     **/
+    public long pageOffset(int pageNo) {
+        return (long) (pageNo + 1) * pageSize;
+    }
+
+    /**
+     * Writes the header at the start of the file
+     **/
+    public void write(FileChannel channel) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SIZE);
+        buf.putInt(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(pageSize);
+        buf.putInt(slotSize);
+        buf.putInt(numCols);
+        buf.putInt(numPages);
+        buf.putLong(numTuples);
+        buf.putInt(layout);
+        buf.putLong(zoneMapOffset);
+        buf.flip();
+        long pos = 0;
+        while (buf.hasRemaining()) {
+            pos += channel.write(buf, pos);
+        }
+    }
+
+    /**
+     * Reads the header from the start of the file.
+     * * Returns null if the file is not a paged table file,
+     * * e.g. a table written with Java serialization by an older loader
+     **/
+    public static TableHeader read(FileChannel channel) throws IOException {
+        if (channel.size() < SIZE) return null;
+        ByteBuffer buf = ByteBuffer.allocate(SIZE);
+        long pos = 0;
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos);
+            if (n < 0) return null;
+            pos += n;
+        }
+        buf.flip();
+        if (buf.getInt() != MAGIC) return null;
+        if (buf.getInt() != VERSION) return null;
+        TableHeader header = new TableHeader(buf.getInt(), buf.getInt(), buf.getInt());
+        header.numPages = buf.getInt();
+        header.numTuples = buf.getLong();
+        header.layout = buf.getInt();
+        header.zoneMapOffset = buf.getLong();  // zero in files written before zone maps
+        return header;
+    }
+
+    /**
+     * Reads the header of the named table file, or null if the file
+     * * does not exist or is not a paged table file
+     **/
+    public static TableHeader read(String filename) {
+        if (!new File(filename).exists()) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(filename, "r")) {
+            return read(raf.getChannel());
+        } catch (IOException io) {
+            return null;
+        }
+    }
+}
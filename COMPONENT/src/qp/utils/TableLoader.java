@@ -0,0 +1,304 @@
+/**
+ * Loads a tab delimited text file into a table file using several threads
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The text file is read in chunks that end on a line boundary. Each chunk is
+ * * parsed by a task of a fork-join pool, which splits it further on line
+ * * boundaries while it is large. INT and REAL fields are parsed straight from
+ * * the bytes, only STRING fields become String objects.
+ * * The thread calling load() is the only writer: it takes the parsed chunks
+ * * in file order and passes their tuples to the TableWriter, so the table
+ * * file is the same as one written by a serial load. At most a few chunks
+ * * are in flight, which bounds the memory used for large files.
+ * * The statistics of the table are gathered in the same pass, one TableStats
+ * * per chunk once its tuples are parsed, and merged in file order, see getStats().
+ **/
+public class TableLoader {
+
+    static final int CHUNK_SIZE = 1 << 20;      // Bytes read per chunk
+    static final int SPLIT_SIZE = 1 << 16;      // Tasks split chunks larger than this
+    static final float[] POW10 = {1f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    final Schema schema;        // Schema of the table
+    final int[] types;          // Type of each attribute
+    final int numThreads;       // Number of parsing threads
+    final Charset charset;      // Encoding of the text file
+    long numLines;              // Number of tuples loaded
+    TableStats stats;           // Statistics of the tuples loaded
+
+    public TableLoader(Schema schema) {
+        this(schema, Runtime.getRuntime().availableProcessors());
+    }
+
+    public TableLoader(Schema schema, int numThreads) {
+        this.schema = schema;
+        this.numThreads = Math.max(1, numThreads);
+        types = new int[schema.getNumCols()];
+        for (int i = 0; i < types.length; ++i) {
+            types[i] = schema.typeOf(i);
+        }
+        charset = Charset.defaultCharset();
+    }
+
+    public long getNumTuples() {
+        return numLines;
+    }
+
+    public TableStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Tuples of a chunk of the file and their statistics
+     **/
+    static class Parsed {
+        final ArrayList<Tuple> tuples;
+        final TableStats stats;
+
+        Parsed(ArrayList<Tuple> tuples, TableStats stats) {
+            this.tuples = tuples;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * Parses the text file and adds its tuples to the open writer in file order.
+     * * Returns false if a line cannot be parsed or written.
+     **/
+    public boolean load(String txtfile, TableWriter writer) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        ArrayDeque<ForkJoinTask<Parsed>> inFlight = new ArrayDeque<>();
+        numLines = 0;
+        stats = new TableStats(types, 0);
+        try (RandomAccessFile in = new RandomAccessFile(txtfile, "r")) {
+            long offset = 0;
+            long length = in.length();
+            byte[] buf = new byte[CHUNK_SIZE];
+            while (offset < length || !inFlight.isEmpty()) {
+                /** keep the pool busy with a bounded number of chunks **/
+                while (offset < length && inFlight.size() < 2 * numThreads) {
+                    int len = (int) Math.min(buf.length, length - offset);
+                    in.seek(offset);
+                    in.readFully(buf, 0, len);
+                    int end = len;
+                    if (offset + len < length) {
+                        end = lastLineEnd(buf, len);
+                        if (end == 0) {
+                            /** a single line longer than the buffer **/
+                            buf = new byte[buf.length * 2];
+                            continue;
+                        }
+                    }
+                    byte[] chunk = new byte[end];
+                    System.arraycopy(buf, 0, chunk, 0, end);
+                    inFlight.add(pool.submit(new ChunkTask(chunk, offset)));
+                    offset += end;
+                }
+                Parsed parsed;
+                try {
+                    parsed = inFlight.poll().join();
+                } catch (RuntimeException e) {
+                    System.out.printf("%s:%s\n", txtfile, e.getMessage());
+                    return false;
+                }
+                for (Tuple tuple : parsed.tuples) {
+                    if (!writer.next(tuple)) return false;
+                    numLines++;
+                }
+                stats.merge(parsed.stats);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return true;
+    }
+
+    /**
+     * Number of bytes up to and including the last line break of the buffer
+     **/
+    static int lastLineEnd(byte[] buf, int len) {
+        for (int i = len - 1; i >= 0; --i) {
+            if (buf[i] == '\n') return i + 1;
+        }
+        return 0;
+    }
+
+    static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\f' || b == '\r' || b == '\n';
+    }
+
+    /**
+     * Parses a chunk, then gathers the statistics of its tuples, so that
+     * * the sketches and samples are merged once per chunk rather than per part
+     **/
+    class ChunkTask extends RecursiveTask<Parsed> {
+        final byte[] bytes;
+        final long offset;    // Position of the chunk in the file
+
+        ChunkTask(byte[] bytes, long offset) {
+            this.bytes = bytes;
+            this.offset = offset;
+        }
+
+        protected Parsed compute() {
+            ArrayList<Tuple> tuples = new ParseTask(bytes, 0, bytes.length).compute();
+            /** seeded by the position in the file, so every load samples alike **/
+            TableStats stats = new TableStats(types, offset);
+            for (Tuple tuple : tuples) {
+                stats.add(tuple);
+            }
+            return new Parsed(tuples, stats);
+        }
+    }
+
+    /**
+     * Parses the lines of a part of a chunk, splitting it in two halves on
+     * * a line boundary as long as it is larger than SPLIT_SIZE
+     **/
+    class ParseTask extends RecursiveTask<ArrayList<Tuple>> {
+        final byte[] bytes;
+        final int start;
+        final int end;
+
+        ParseTask(byte[] bytes, int start, int end) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected ArrayList<Tuple> compute() {
+            if (end - start > SPLIT_SIZE) {
+                int mid = start + (end - start) / 2;
+                while (mid < end && bytes[mid - 1] != '\n') mid++;
+                if (mid < end) {
+                    ParseTask second = new ParseTask(bytes, mid, end);
+                    second.fork();
+                    ArrayList<Tuple> tuples = new ParseTask(bytes, start, mid).compute();
+                    tuples.addAll(second.join());
+                    return tuples;
+                }
+            }
+            ArrayList<Tuple> tuples = new ArrayList<>();
+            int pos = start;
+            while (pos < end) {
+                int lineEnd = pos;
+                while (lineEnd < end && bytes[lineEnd] != '\n' && bytes[lineEnd] != '\r') lineEnd++;
+                Tuple tuple = parseLine(pos, lineEnd);
+                if (tuple != null) {
+                    tuples.add(tuple);
+                }
+                pos = lineEnd + 1;
+            }
+            return tuples;
+        }
+
+        /**
+         * Parses the whitespace separated fields of a line, null for an empty line.
+         * * Missing trailing fields are stored as nulls.
+         **/
+        private Tuple parseLine(int pos, int lineEnd) {
+            ArrayList<Object> data = new ArrayList<>(types.length);
+            while (true) {
+                while (pos < lineEnd && isSpace(bytes[pos])) pos++;
+                if (pos == lineEnd) break;
+                int fieldEnd = pos;
+                while (fieldEnd < lineEnd && !isSpace(bytes[fieldEnd])) fieldEnd++;
+                int col = data.size();
+                if (col == types.length) {
+                    throw new IllegalArgumentException("too many fields in line "
+                            + new String(bytes, pos, lineEnd - pos, charset));
+                }
+                if (types[col] == Attribute.INT) {
+                    data.add(parseInt(bytes, pos, fieldEnd));
+                } else if (types[col] == Attribute.REAL) {
+                    data.add(parseFloat(bytes, pos, fieldEnd));
+                } else {
+                    data.add(new String(bytes, pos, fieldEnd - pos, charset));
+                }
+                pos = fieldEnd;
+            }
+            if (data.isEmpty()) return null;
+            while (data.size() < types.length) {
+                data.add(null);
+            }
+            return new Tuple(data);
+        }
+    }
+
+    /**
+     * Same result as Integer.valueOf on the field, without creating a String
+     * * unless the field is malformed
+     **/
+    static Integer parseInt(byte[] b, int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (b[pos] == '-' || b[pos] == '+')) {
+            negative = b[pos] == '-';
+            pos++;
+        }
+        if (pos == end) return Integer.valueOf(new String(b, start, end - start));
+        long value = 0;
+        for (; pos < end; ++pos) {
+            int digit = b[pos] - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE + 1L) {
+                /** let Integer.valueOf report the error **/
+                return Integer.valueOf(new String(b, start, end - start));
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return Integer.valueOf(new String(b, start, end - start));
+        }
+        return (int) value;
+    }
+
+    /**
+     * Same result as Float.valueOf on the field. Plain decimals with at most
+     * * 7 significant digits and 10 decimals are parsed from the bytes: the digits
+     * * and the power of ten are then exact floats, so a single division gives the
+     * * correctly rounded value. Anything else goes through Float.valueOf.
+     **/
+    static Float parseFloat(byte[] b, int start, int end) {
+        int pos = start;
+        boolean negative = false;
+        if (pos < end && (b[pos] == '-' || b[pos] == '+')) {
+            negative = b[pos] == '-';
+            pos++;
+        }
+        int mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; pos < end; ++pos) {
+            byte c = b[pos];
+            if (c == '.' && decimals < 0) {
+                decimals = 0;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9 || mantissa >= (1 << 24) / 10) {
+                return Float.valueOf(new String(b, start, end - start));
+            }
+            mantissa = mantissa * 10 + digit;
+            digits++;
+            if (decimals >= 0) decimals++;
+        }
+        if (digits == 0 || decimals > 10) {
+            return Float.valueOf(new String(b, start, end - start));
+        }
+        float value = (decimals > 0) ? mantissa / POW10[decimals] : mantissa;
+        return negative ? -value : value;
+    }
+}
@@ -0,0 +1,356 @@
+/**
+ * Statistics of a table gathered while it is loaded
+ **/
+
+package qp.utils;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+/**
+ * TableStats collects in a single pass over the tuples
+ * * the number of tuples, and per attribute the number of nulls, min and max,
+ * * the number of distinct values estimated with a HyperLogLog sketch and a
+ * * reservoir sample from which an equi-depth histogram is built.
+ * * Partial statistics of parts of the input can be merged, so the loader
+ * * collects them per chunk of the file in parallel.
+ * *
+ * * write() produces <table>.xstat with one line per attribute
+ * *   <colname> <distinct> <nulls> <min> <max> <numbuckets> <bound 1> ... <bound n>
+ * * where bucket i holds the values above bound i-1 (min for the first) up to
+ * * bound i, and every bucket holds the same number of tuples. Histograms are
+ * * only kept for INT and REAL attributes, min and max are "-" if all values are null.
+ * * If the table has no <table>.stat yet, e.g. from RandomDB, whose counts are
+ * * exact, one is written in that format with the estimated distinct counts.
+ **/
+public class TableStats {
+
+    static final int HLL_BITS = 14;                // log2 of the number of HyperLogLog registers
+    static final int HLL_REGISTERS = 1 << HLL_BITS;
+    static final int SAMPLE_SIZE = 1024;           // Values kept per attribute for the histogram
+    static final int NUM_BUCKETS = 32;             // Buckets of an equi-depth histogram
+
+    final int[] types;        // Type of each attribute
+    long numTuples;           // Number of tuples added
+    long[] nulls;             // Number of nulls of each attribute
+    long[] seen;              // Number of non-null values of each attribute
+    Object[] min;             // Smallest value of each attribute
+    Object[] max;             // Largest value of each attribute
+    byte[][] registers;       // HyperLogLog registers of each attribute
+    Object[][] samples;       // Reservoir sample of each attribute
+    int[] sampled;            // Number of values in each sample
+    Random random;            // Source of the sampling decisions
+
+    public TableStats(Schema schema) {
+        this(typesOf(schema), 0);
+    }
+
+    /**
+     * seed: seed of the sampling, so that a load gives the same statistics every time
+     **/
+    public TableStats(int[] types, long seed) {
+        this.types = types;
+        int n = types.length;
+        nulls = new long[n];
+        seen = new long[n];
+        min = new Object[n];
+        max = new Object[n];
+        registers = new byte[n][HLL_REGISTERS];
+        samples = new Object[n][SAMPLE_SIZE];
+        sampled = new int[n];
+        random = new Random(seed);
+    }
+
+    static int[] typesOf(Schema schema) {
+        int[] types = new int[schema.getNumCols()];
+        for (int i = 0; i < types.length; ++i) {
+            types[i] = schema.typeOf(i);
+        }
+        return types;
+    }
+
+    public long getNumTuples() {
+        return numTuples;
+    }
+
+    public long getNulls(int col) {
+        return nulls[col];
+    }
+
+    public Object getMin(int col) {
+        return min[col];
+    }
+
+    public Object getMax(int col) {
+        return max[col];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    public void add(Tuple tuple) {
+        numTuples++;
+        for (int i = 0; i < types.length; ++i) {
+            Object value = tuple.dataAt(i);
+            if (value == null) {
+                nulls[i]++;
+                continue;
+            }
+            seen[i]++;
+            if (min[i] == null || compare(value, min[i]) < 0) min[i] = value;
+            if (max[i] == null || compare(value, max[i]) > 0) max[i] = value;
+
+            long hash = hash(value);
+            int index = (int) (hash >>> (64 - HLL_BITS));
+            int rank = Long.numberOfLeadingZeros((hash << HLL_BITS) | (1L << (HLL_BITS - 1))) + 1;
+            if (rank > registers[i][index]) registers[i][index] = (byte) rank;
+
+            /** reservoir sampling: the k-th value replaces a sampled one with probability SAMPLE_SIZE/k **/
+            if (sampled[i] < SAMPLE_SIZE) {
+                samples[i][sampled[i]++] = value;
+            } else {
+                long slot = (long) (random.nextDouble() * seen[i]);
+                if (slot < SAMPLE_SIZE) samples[i][(int) slot] = value;
+            }
+        }
+    }
+
+    /**
+     * Adds the statistics of another part of the table
+     **/
+    public void merge(TableStats other) {
+        numTuples += other.numTuples;
+        for (int i = 0; i < types.length; ++i) {
+            nulls[i] += other.nulls[i];
+            if (other.min[i] != null && (min[i] == null || compare(other.min[i], min[i]) < 0)) min[i] = other.min[i];
+            if (other.max[i] != null && (max[i] == null || compare(other.max[i], max[i]) > 0)) max[i] = other.max[i];
+            for (int r = 0; r < HLL_REGISTERS; ++r) {
+                if (other.registers[i][r] > registers[i][r]) registers[i][r] = other.registers[i][r];
+            }
+            mergeSample(i, other);
+            seen[i] += other.seen[i];
+        }
+    }
+
+    /**
+     * Draws the merged sample as a reservoir of both parts would be: each
+     * * value comes from one part with probability the share of that part in
+     * * the values not drawn yet, and is picked without replacement from the
+     * * sample of that part. Each sample is a uniform sample of its part, holding
+     * * all of it when smaller than SAMPLE_SIZE, so it never runs out.
+     **/
+    private void mergeSample(int col, TableStats other) {
+        int na = sampled[col];
+        int nb = other.sampled[col];
+        if (na + nb <= SAMPLE_SIZE) {
+            System.arraycopy(other.samples[col], 0, samples[col], na, nb);
+            sampled[col] = na + nb;
+            return;
+        }
+        Object[] a = Arrays.copyOf(samples[col], na);
+        Object[] b = Arrays.copyOf(other.samples[col], nb);
+        long ra = seen[col];        // Values of this part not drawn yet
+        long rb = other.seen[col];  // Values of the other part not drawn yet
+        Object[] merged = new Object[SAMPLE_SIZE];
+        for (int k = 0; k < SAMPLE_SIZE; ++k) {
+            if (random.nextDouble() * (ra + rb) < ra) {
+                int pick = random.nextInt(na);
+                merged[k] = a[pick];
+                a[pick] = a[--na];
+                ra--;
+            } else {
+                int pick = random.nextInt(nb);
+                merged[k] = b[pick];
+                b[pick] = b[--nb];
+                rb--;
+            }
+        }
+        samples[col] = merged;
+        sampled[col] = SAMPLE_SIZE;
+    }
+
+    /**
+     * 64 bit hash of a value, spread with the MurmurHash3 finalizer
+     **/
+    static long hash(Object value) {
+        long h;
+        if (value instanceof Integer) {
+            h = (Integer) value;
+        } else if (value instanceof Float) {
+            h = Float.floatToIntBits((Float) value);
+        } else {
+            String s = (String) value;
+            h = 1125899906842597L;
+            for (int i = 0; i < s.length(); ++i) {
+                h = 31 * h + s.charAt(i);
+            }
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Number of distinct non-null values of the attribute estimated from its sketch
+     **/
+    public long getDistinct(int col) {
+        double sum = 0;
+        int zeros = 0;
+        for (int r = 0; r < HLL_REGISTERS; ++r) {
+            sum += Math.scalb(1.0, -registers[col][r]);
+            if (registers[col][r] == 0) zeros++;
+        }
+        double m = HLL_REGISTERS;
+        double estimate = (0.7213 / (1 + 1.079 / m)) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log(m / zeros);  // linear counting for small cardinalities
+        }
+        return Math.min(Math.round(estimate), seen[col]);
+    }
+
+    /**
+     * Upper bounds of the buckets of the equi-depth histogram,
+     * * null for STRING attributes and attributes without values
+     **/
+    public double[] getHistogram(int col) {
+        if (types[col] == Attribute.STRING || sampled[col] == 0) return null;
+        double[] values = new double[sampled[col]];
+        for (int k = 0; k < values.length; ++k) {
+            values[k] = ((Number) samples[col][k]).doubleValue();
+        }
+        Arrays.sort(values);
+        int buckets = Math.min(NUM_BUCKETS, values.length);
+        double[] bounds = new double[buckets];
+        for (int b = 0; b < buckets; ++b) {
+            int k = (int) Math.ceil((double) (b + 1) * values.length / buckets) - 1;
+            bounds[b] = values[k];
+        }
+        bounds[buckets - 1] = ((Number) max[col]).doubleValue();
+        return bounds;
+    }
+
+    /**
+     * Writes <tblname>.xstat, and <tblname>.stat unless there is one already
+     **/
+    public void write(String tblname, Schema schema) throws IOException {
+        if (!new File(tblname + ".stat").exists()) {
+            PrintWriter stat = new PrintWriter(new BufferedWriter(new FileWriter(tblname + ".stat")));
+            stat.println(numTuples);
+            for (int i = 0; i < types.length; ++i) {
+                /** the optimizer divides by these numbers **/
+                stat.print(Math.max(1, getDistinct(i)) + "\t");
+            }
+            stat.println();
+            stat.close();
+        }
+
+        PrintWriter xstat = new PrintWriter(new BufferedWriter(new FileWriter(tblname + ".xstat")));
+        xstat.println(numTuples);
+        for (int i = 0; i < types.length; ++i) {
+            xstat.print(schema.getAttribute(i).getColName());
+            xstat.print("\t" + getDistinct(i) + "\t" + nulls[i]);
+            xstat.print("\t" + ((min[i] == null) ? "-" : min[i]) + "\t" + ((max[i] == null) ? "-" : max[i]));
+            double[] bounds = getHistogram(i);
+            xstat.print("\t" + ((bounds == null) ? 0 : bounds.length));
+            if (bounds != null) {
+                for (double bound : bounds) {
+                    xstat.print("\t" + bound);
+                }
+            }
+            xstat.println();
+        }
+        xstat.close();
+    }
+
+    /**
+     * Statistics of one attribute read back from a .xstat file
+     **/
+    public static class Column {
+        long numTuples;   // Number of tuples of the table
+        long distinct;    // Number of distinct non-null values
+        long nulls;       // Number of nulls
+        double[] bounds;  // Upper bounds of the histogram buckets, null if there is none
+        double min;       // Smallest value of a numeric attribute
+
+        public long getDistinct() {
+            return distinct;
+        }
+
+        public long getNulls() {
+            return nulls;
+        }
+
+        public boolean hasHistogram() {
+            return bounds != null;
+        }
+
+        public double nonNullFraction() {
+            return (numTuples == 0) ? 0 : (double) (numTuples - nulls) / numTuples;
+        }
+
+        /**
+         * Estimated fraction of the tuples whose value is below c,
+         * * or at most c if inclusive. Nulls are never counted.
+         **/
+        public double fractionBelow(double c, boolean inclusive) {
+            if (bounds == null || numTuples == 0) return 0.5;
+            double nonnull = nonNullFraction();
+            if (c < min || (!inclusive && c == min)) return 0;
+            double fraction = 0;
+            double lo = min;
+            for (double hi : bounds) {
+                if (c > hi || (c == hi && (inclusive || hi > lo))) {
+                    fraction += 1;
+                } else if (c > lo) {
+                    fraction += (c - lo) / (hi - lo);  // uniform within the bucket
+                }
+                lo = hi;
+            }
+            return nonnull * Math.min(1, fraction / bounds.length);
+        }
+    }
+
+    /**
+     * Reads <tblname>.xstat, null if there is no such file or it does not match the schema
+     **/
+    public static Column[] read(String tblname, Schema schema) {
+        File file = new File(tblname + ".xstat");
+        if (!file.exists()) return null;
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            long numTuples = Long.parseLong(in.readLine().trim());
+            Column[] columns = new Column[schema.getNumCols()];
+            for (int i = 0; i < columns.length; ++i) {
+                String line = in.readLine();
+                if (line == null) return null;
+                StringTokenizer tokenizer = new StringTokenizer(line, "\t");
+                if (!tokenizer.nextToken().equals(schema.getAttribute(i).getColName())) return null;
+                Column column = new Column();
+                column.numTuples = numTuples;
+                column.distinct = Long.parseLong(tokenizer.nextToken());
+                column.nulls = Long.parseLong(tokenizer.nextToken());
+                String min = tokenizer.nextToken();
+                tokenizer.nextToken();  // max, the last bound of the histogram
+                int buckets = Integer.parseInt(tokenizer.nextToken());
+                if (buckets > 0) {
+                    column.min = Double.parseDouble(min);
+                    column.bounds = new double[buckets];
+                    for (int b = 0; b < buckets; ++b) {
+                        column.bounds[b] = Double.parseDouble(tokenizer.nextToken());
+                    }
+                }
+                columns[i] = column;
+            }
+            return columns;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("incorrect format of statistics file " + file.getName());
+            return null;
+        }
+    }
+}
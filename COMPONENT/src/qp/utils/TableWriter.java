@@ -0,0 +1,203 @@
+/**
+ * TableWriter writes the tuples of a base table into a paged table file
+ */
+
+package qp.utils;
+
+import qp.optimizer.BufferManager;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class TableWriter {
+
+    final String filename;    // Filename to write to
+    final Schema schema;      // Schema of the table
+    final int pageSize;       // Number of bytes per page
+    final int layoutType;     // PageLayout.ROW, PAX or COMPRESSED
+
+    PageLayout layout;        // Layout of the data pages
+    TableHeader header;       // Header page of the file
+    ByteBuffer page;          // Page currently being filled
+    int slot;                 // Next free slot in the page
+    int numPages;             // Number of pages written
+    long numTuples;           // Number of tuples added
+    FileChannel out;          // Output file
+    ColumnEncoder[] encoders; // COMPRESSED: values of the page being filled, per attribute
+    ZoneMap zones;            // Value ranges of the pages, written after the last page
+
+    // filename: Filename of the table file to write to
+    // pageSize: Number of bytes per page of the file
+    public TableWriter(String filename, Schema schema, int pageSize) {
+        this(filename, schema, pageSize, PageLayout.ROW);
+    }
+
+    // layoutType: PageLayout.ROW to store whole tuples, PageLayout.PAX to group values by attribute,
+    //             PageLayout.COMPRESSED to encode the values of each attribute per page
+    public TableWriter(String filename, Schema schema, int pageSize, int layoutType) {
+        this.filename = filename;
+        this.schema = schema;
+        this.pageSize = pageSize;
+        this.layoutType = layoutType;
+    }
+
+    public int getNumPages() {
+        return numPages;
+    }
+
+    public long getNumTuples() {
+        return numTuples;
+    }
+
+    public String getFileName() {
+        return filename;
+    }
+
+    // Opens the file and reserves the header page
+    public boolean open() {
+        layout = new PageLayout(schema, pageSize, layoutType);
+        if (layout.getNumSlots() < 1 || pageSize < TableHeader.SIZE) {
+            System.out.printf("%s:page size %d is too small for a tuple of %d bytes\n",
+                    filename, pageSize, layout.getSlotSize());
+            return false;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(filename, "rw");
+            raf.setLength(0);
+            out = raf.getChannel();
+            /** pages cached for an earlier version of the table are stale **/
+            BufferPool pool = BufferManager.getBufferPool();
+            if (pool != null) pool.invalidate(filename);
+        } catch (IOException io) {
+            System.out.printf("%s:writing the table file error\n", filename);
+            return false;
+        }
+        header = new TableHeader(pageSize, layout.getSlotSize(), schema.getNumCols(), layoutType);
+        page = ByteBuffer.allocate(pageSize);
+        layout.initPage(page);
+        if (layoutType == PageLayout.COMPRESSED) {
+            encoders = new ColumnEncoder[schema.getNumCols()];
+            for (int i = 0; i < encoders.length; ++i) {
+                encoders[i] = new ColumnEncoder(schema.typeOf(i));
+            }
+        }
+        zones = new ZoneMap(schema);
+        slot = 0;
+        numPages = 0;
+        numTuples = 0;
+        return true;
+    }
+
+    // Adds a tuple to the current page, the page is written once it is full
+    public boolean next(Tuple tuple) {
+        if (encoders != null) {
+            return nextCompressed(tuple);
+        }
+        if (!layout.encode(tuple, page, slot)) {
+            System.out.printf("%s:tuple %d does not fit the attribute sizes of the schema\n", filename, numTuples);
+            return false;
+        }
+        zones.add(tuple);
+        ++slot;
+        ++numTuples;
+        if (slot == layout.getNumSlots())
+            writePage();
+        return true;
+    }
+
+    // Adds a tuple to the encoders, the page is written once the tuple no longer fits
+    private boolean nextCompressed(Tuple tuple) {
+        for (int i = 0; i < encoders.length; ++i) {
+            Object value = tuple.dataAt(i);
+            if (value instanceof String
+                    && ColumnEncoder.utf8Length((String) value) > schema.getAttribute(i).getAttrSize()) {
+                System.out.printf("%s:tuple %d does not fit the attribute sizes of the schema\n", filename, numTuples);
+                return false;
+            }
+        }
+        for (int i = 0; i < encoders.length; ++i) {
+            encoders[i].add(tuple.dataAt(i));
+        }
+        ++slot;
+        if (compressedSize() > pageSize) {
+            if (slot == 1) {
+                System.out.printf("%s:page size %d is too small for tuple %d\n", filename, pageSize, numTuples);
+                return false;
+            }
+            for (ColumnEncoder encoder : encoders) {
+                encoder.removeLast();
+            }
+            --slot;
+            writePage();
+            return nextCompressed(tuple);
+        }
+        zones.add(tuple);
+        ++numTuples;
+        return true;
+    }
+
+    // Number of bytes of the compressed page holding the tuples added so far
+    private long compressedSize() {
+        long size = PageLayout.PAGE_HEADER_SIZE + 4L * encoders.length;
+        for (ColumnEncoder encoder : encoders) {
+            size += encoder.size();
+        }
+        return size;
+    }
+
+    // Encodes the values collected for the page into the page buffer
+    private void encodePage() {
+        page.putInt(0, slot);
+        page.putInt(4, slot);
+        int pos = PageLayout.PAGE_HEADER_SIZE + 4 * encoders.length;
+        for (int i = 0; i < encoders.length; ++i) {
+            page.putInt(PageLayout.PAGE_HEADER_SIZE + 4 * i, pos);
+            pos = encoders[i].write(page, pos);
+            encoders[i].clear();
+        }
+    }
+
+    // Helper method to write the current page at its place in the file
+    private void writePage() {
+        if (encoders != null) {
+            encodePage();
+        }
+        try {
+            page.clear();
+            long pos = header.pageOffset(numPages);
+            while (page.hasRemaining()) {
+                pos += out.write(page, pos);
+            }
+            ++numPages;
+            zones.endPage();
+            layout.initPage(page);
+            slot = 0;
+        } catch (IOException io) {
+            System.out.printf("%s:writing the table file error\n", filename);
+            System.out.println(io);
+            System.exit(1);
+        }
+    }
+
+    // Flushes the last page, then writes the zone map and the header page
+    public boolean close() {
+        if (out == null) return true;
+        if (slot > 0) writePage();
+        try {
+            header.setZoneMapOffset(header.pageOffset(numPages));
+            zones.write(out, header.getZoneMapOffset());
+            header.setNumPages(numPages);
+            header.setNumTuples(numTuples);
+            header.write(out);
+            out.close();
+            out = null;
+        } catch (IOException io) {
+            System.out.printf("%s:writing the table file error\n", filename);
+            System.out.println(io);
+            return false;
+        }
+        return true;
+    }
+}
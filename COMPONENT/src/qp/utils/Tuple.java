@@ -12,6 +12,9 @@ import java.io.*;
  */
 public class Tuple implements Serializable {
 
+    /** The id the serialized table files were written with, kept as methods are added **/
+    private static final long serialVersionUID = 1928781161746223552L;
+
     public ArrayList<Object> _data;
 
     public Tuple(ArrayList<Object> d) {
@@ -29,6 +32,11 @@ public class Tuple implements Serializable {
         return _data.get(index);
     }
 
+    /** Number of values of the tuple **/
+    public int size() {
+        return _data.size();
+    }
+
     /**
      * Checks whether the join condition is satisfied or not with one condition
      * * before performing actual join operation
@@ -42,6 +50,20 @@ public class Tuple implements Serializable {
             return false;
     }
 
+    /**
+     * Checks whether the join attributes at the given indices are all equal,
+     * * a null attribute equalling nothing
+     **/
+    public boolean checkJoin(Tuple right, int[] leftindex, int[] rightindex) {
+        for (int i = 0; i < leftindex.length; ++i) {
+            Object leftData = dataAt(leftindex[i]);
+            if (leftData == null || !leftData.equals(right.dataAt(rightindex[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Checks whether the join condition is satisfied or not with multiple conditions
      * * before performing actual join operation
@@ -60,12 +82,11 @@ public class Tuple implements Serializable {
     }
 
     /**
-     * Joining two tuples without duplicate column elimination
+     * Joining two tuples without duplicate column elimination.
+     * * The values are not copied, see JoinedTuple.
      **/
     public Tuple joinWith(Tuple right) {
-        ArrayList<Object> newData = new ArrayList<>(this.data());
-        newData.addAll(right.data());
-        return new Tuple(newData);
+        return new JoinedTuple(this, right);
     }
 
     /**
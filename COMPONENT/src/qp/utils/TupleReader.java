@@ -4,6 +4,7 @@
 
 package qp.utils;
 
+import qp.optimizer.BufferManager;
 import qp.utils.*;
 
 import java.util.*;
@@ -13,6 +14,7 @@ public class TupleReader {
 
     final String filename;    // Filename to write to
     final int batchsize;        // Number of tuples per out batch
+    final BatchCodec codec;     // Encoding of the batches in the file
 
     Batch inBatch;                            // Currently buffered input
     int readCursor = 0;                    // Cursor within inBatch
@@ -20,13 +22,17 @@ public class TupleReader {
     int numBatch = 0;                        // Number of batch read
     int numTuple = 0;                        // Number of tuples read
     Tuple peekTuple = null;            // The next tuple of the batch (if peeked)
-    ObjectInputStream in;                // Input file stream
+    DataInputStream in;                  // Input file stream
+    ReadAhead readAhead;                 // Batches read ahead, null if reading synchronously
+    int prefetch;                        // Number of read-ahead buffers held
 
     // filename: Filename of the output file to read from
+    // schema: Schema of the tuples in the file
     // batchsize: Number of tuples per batch
-    public TupleReader(String filename, int batchsize) {
+    public TupleReader(String filename, Schema schema, int batchsize) {
         this.filename = filename;
         this.batchsize = batchsize;
+        this.codec = new BatchCodec(schema);
     }
 
     public int getNumBatch() {
@@ -54,7 +60,7 @@ public class TupleReader {
     // Opens the input file and initializes the class for reading
     public boolean open() {
         try {
-            in = new ObjectInputStream(new FileInputStream(filename));
+            in = BatchCodec.openInput(filename);
         } catch (IOException io) {
             System.out.printf("%s:reading the temporary file error", filename);
             return false;
@@ -64,6 +70,11 @@ public class TupleReader {
         numTuple = 0;
         readCursor = 0;
         completed = false;
+        prefetch = BufferManager.reservePrefetch();
+        if (prefetch > 0) {
+            readAhead = new ReadAhead(filename, prefetch, this::readBatch);
+            readAhead.start();
+        }
         return true;
     }
 
@@ -79,7 +90,8 @@ public class TupleReader {
         if (inBatch == null) {
             try {
                 while (true) {
-                    inBatch = (Batch) in.readObject();
+                    inBatch = (readAhead != null) ? readAhead.next() : codec.read(in);
+                    if (inBatch == null) throw new EOFException();
                     numBatch++;
                     if (inBatch.size() > 0) break;
                 }
@@ -89,9 +101,6 @@ public class TupleReader {
                 completed = true;
                 this.close();
                 return null;
-            } catch (ClassNotFoundException c) {
-                System.out.printf("%s:Some error in deserialization\n", filename);
-                System.exit(1);
             } catch (IOException io) {
                 System.out.printf("%s:temporary file reading error\n", filename);
                 System.exit(1);
@@ -111,6 +120,15 @@ public class TupleReader {
         return peekTuple;
     }
 
+    // Reads the next batch from the file, null at the end of the file
+    private Batch readBatch() throws IOException {
+        try {
+            return codec.read(in);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
     // Returns the next tuple and advances the stream
     public Tuple next() {
         // Returns the next tuple, already computed by peek()
@@ -130,6 +148,12 @@ public class TupleReader {
         inBatch = null;        // deallocate buffer
         peekTuple = null;
         completed = true;
+        if (readAhead != null) {
+            readAhead.close();
+            readAhead = null;
+            BufferManager.releasePrefetch(prefetch);
+            prefetch = 0;
+        }
         if (in != null) {
             try {
                 in.close();
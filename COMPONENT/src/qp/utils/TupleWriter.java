@@ -13,17 +13,20 @@ public class TupleWriter {
 
     final String filename;    // Filename to write to
     final int batchsize;        // Number of tuples per out batch
+    final BatchCodec codec;     // Encoding of the batches in the file
 
     Batch outBatch;
     int numBatch = 0;                        // Number of batch written
     int numTuple = 0;                        // Number of tuples added
-    ObjectOutputStream out;            // Output file stream
+    DataOutputStream out;              // Output file stream
 
     // filename: Filename of the output file to write to
+    // schema: Schema of the tuples written
     // batchsize: Number of tuples per batch
-    public TupleWriter(String filename, int batchsize) {
+    public TupleWriter(String filename, Schema schema, int batchsize) {
         this.filename = filename;
         this.batchsize = batchsize;
+        this.codec = new BatchCodec(schema);
     }
 
     public int getNumBatch() {
@@ -45,7 +48,7 @@ public class TupleWriter {
     // Opens the file and initializes the class for writing
     public boolean open() {
         try {
-            out = new ObjectOutputStream(new FileOutputStream(filename));
+            out = BatchCodec.openOutput(filename);
         } catch (IOException io) {
             System.out.printf("%s:writing the temporary file error", filename);
             return false;
@@ -72,7 +75,7 @@ public class TupleWriter {
     // Helper method to write a single batch to the output file
     private void writeBatch() {
         try {
-            out.writeObject(outBatch);
+            codec.write(outBatch, out);
             outBatch = null;        // deallocate output buffer --> saves memory
             ++numBatch;
         } catch (IOException io) {
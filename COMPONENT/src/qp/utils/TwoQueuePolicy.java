@@ -0,0 +1,130 @@
+/**
+ * Scan resistant 2Q replacement with a ring for sequential pages
+ **/
+
+package qp.utils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Pages are kept in three queues:
+ * * - the ring, a FIFO of pages read by a sequential access, holding at most
+ * *   an eighth of the frames once the pool is full. A large scan only
+ * *   recycles the frames of the ring and cannot flush the other pages.
+ * * - A1in, a FIFO of pages read once by other accesses, a quarter of the frames.
+ * * - Am, an LRU list of the pages that proved to be hot.
+ * * The ids of pages evicted from the ring or A1in are remembered in a ghost
+ * * list as long as half the pool. A page read again while its id is still
+ * * there goes straight to Am, so a small table scanned over and over, e.g.
+ * * the right input of a block nested loop join, ends up resident while a
+ * * table larger than the ghost list never does. A page of the ring read
+ * * again by a non-sequential access is moved to Am as well.
+ * * As the ids of a large scan running at the same time push those of the small
+ * * table out of the ghost list, files are also watched as a whole: a file of at
+ * * most half the pool that is read from its first page again has its pages
+ * * admitted to Am directly.
+ **/
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    final int ringSize;                              // Pages the ring keeps before recycling its own frames
+    final int inSize;                                // Pages A1in keeps before giving up its own frames
+    final int ghostSize;                             // Ids remembered of evicted pages
+    final LinkedHashSet<Integer> ring;               // Frames of sequentially read pages, oldest first
+    final LinkedHashSet<Integer> in;                 // A1in: frames of pages read once, oldest first
+    final LinkedHashSet<Integer> hot;                // Am: frames of hot pages, least recently used first
+    final LinkedHashSet<Integer> free;               // Frames emptied by the pool
+    final LinkedHashSet<BufferPool.PageId> ghosts;   // Ids of pages evicted from the ring or A1in, oldest first
+    final int smallSize;                             // Largest number of pages of a file kept resident when rescanned
+    final HashMap<String, Long> extent;              // Number of pages of each file seen so far
+    final HashSet<String> rescanned;                 // Files read from their first page more than once
+
+    public TwoQueuePolicy(int numFrames) {
+        ringSize = Math.max(1, numFrames / 8);
+        inSize = Math.max(1, numFrames / 4);
+        ghostSize = Math.max(1, numFrames / 2);
+        ring = new LinkedHashSet<>();
+        in = new LinkedHashSet<>();
+        hot = new LinkedHashSet<>();
+        free = new LinkedHashSet<>();
+        ghosts = new LinkedHashSet<>();
+        smallSize = Math.max(1, numFrames / 2);
+        extent = new HashMap<>();
+        rescanned = new HashSet<>();
+    }
+
+    /**
+     * Records the extent of the file of the page and whether it is being read again
+     **/
+    private void note(BufferPool.PageId id) {
+        long seen = extent.getOrDefault(id.file, 0L);
+        if (id.pageno == 0 && seen > 0) rescanned.add(id.file);
+        if (id.pageno >= seen) extent.put(id.file, id.pageno + 1);
+    }
+
+    /**
+     * Whether the file is small and read over and over
+     **/
+    private boolean isHotFile(String file) {
+        return rescanned.contains(file) && extent.get(file) <= smallSize;
+    }
+
+    public void loaded(BufferPool.Frame frame, boolean sequential) {
+        free.remove(frame.index);
+        note(frame.id);
+        if (ghosts.remove(frame.id) || isHotFile(frame.id.file)) {
+            hot.add(frame.index);
+        } else if (sequential) {
+            ring.add(frame.index);
+        } else {
+            in.add(frame.index);
+        }
+    }
+
+    public void accessed(BufferPool.Frame frame, boolean sequential) {
+        Integer index = frame.index;
+        note(frame.id);
+        if (hot.remove(index)) {
+            hot.add(index);
+        } else if ((!sequential || isHotFile(frame.id.file)) && ring.remove(index)) {
+            hot.add(index);
+        }
+        /** a page of A1in stays there, its reads are taken as correlated **/
+    }
+
+    public void removed(BufferPool.Frame frame) {
+        Integer index = frame.index;
+        if (ring.remove(index) || in.remove(index)) {
+            if (frame.id != null) {
+                ghosts.add(frame.id);
+                if (ghosts.size() > ghostSize) {
+                    ghosts.remove(ghosts.iterator().next());
+                }
+            }
+        } else {
+            hot.remove(index);
+        }
+        free.add(index);
+    }
+
+    public int victim(BufferPool.Frame[] frames) {
+        int victim = oldestUnpinned(free, frames);
+        if (victim == -1 && ring.size() >= ringSize) victim = oldestUnpinned(ring, frames);
+        if (victim == -1 && in.size() > inSize) victim = oldestUnpinned(in, frames);
+        if (victim == -1) victim = oldestUnpinned(hot, frames);
+        if (victim == -1) victim = oldestUnpinned(ring, frames);
+        if (victim == -1) victim = oldestUnpinned(in, frames);
+        return victim;
+    }
+
+    private static int oldestUnpinned(LinkedHashSet<Integer> queue, BufferPool.Frame[] frames) {
+        Iterator<Integer> it = queue.iterator();
+        while (it.hasNext()) {
+            int frame = it.next();
+            if (!frames[frame].isPinned()) return frame;
+        }
+        return -1;
+    }
+}
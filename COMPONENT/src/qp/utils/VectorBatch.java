@@ -0,0 +1,374 @@
+/**
+ * Batch storing its tuples column by column in primitive arrays
+ **/
+
+package qp.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A VectorBatch keeps an int[] per INT attribute, a float[] per REAL
+ * * attribute and, per STRING attribute, an int[] of codes into a dictionary
+ * * of the distinct strings of the batch. Nulls are flagged per attribute.
+ * * No Integer, Float or Tuple objects are created while the batch is filled,
+ * * and operators that know about vector batches work on the arrays directly:
+ * * Scan fills them from the pages, Select evaluates conditions on a column,
+ * * Project shares the arrays of the attributes it keeps.
+ * * Every other operator sees an ordinary Batch: get() builds the tuple of
+ * * a row when it is first asked for.
+ **/
+public class VectorBatch extends Batch {
+
+    static boolean enabled = false;  // Whether scans produce vector batches
+
+    /** Set whether scans of paged tables produce vector batches **/
+    public static void setEnabled(boolean flag) {
+        enabled = flag;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    final int[] types;                        // Type of each attribute
+    int numRows;                              // Number of rows stored
+    int[][] ints;                             // INT: values of each row, null for other types
+    float[][] floats;                         // REAL: values of each row, null for other types
+    int[][] codes;                            // STRING: dictionary code of each row, null for other types
+    ArrayList<String>[] dicts;                // STRING: distinct strings of the batch
+    HashMap<String, Integer>[] dictIndex;     // STRING: code of each string of the dictionary
+    boolean[][] nulls;                        // Whether each row is null, null while no row is
+    Tuple[] rows;                             // Tuples built by get(), null until asked for
+    VectorBatch base;                         // Batch whose column arrays this one shares, null if none
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public VectorBatch(int[] types, int numtuple) {
+        super(0);
+        MAX_SIZE = numtuple;
+        tuples = null;
+        this.types = types;
+        int n = types.length;
+        ints = new int[n][];
+        floats = new float[n][];
+        codes = new int[n][];
+        dicts = new ArrayList[n];
+        dictIndex = new HashMap[n];
+        nulls = new boolean[n][];
+        for (int i = 0; i < n; ++i) {
+            if (types[i] == Attribute.INT) {
+                ints[i] = new int[numtuple];
+            } else if (types[i] == Attribute.REAL) {
+                floats[i] = new float[numtuple];
+            } else {
+                codes[i] = new int[numtuple];
+                dicts[i] = new ArrayList<>();
+                dictIndex[i] = new HashMap<>();
+            }
+        }
+        rows = new Tuple[numtuple];
+        numRows = 0;
+    }
+
+    public VectorBatch(Schema schema, int numtuple) {
+        this(typesOf(schema), numtuple);
+    }
+
+    public static int[] typesOf(Schema schema) {
+        int[] types = new int[schema.getNumCols()];
+        for (int i = 0; i < types.length; ++i) {
+            types[i] = schema.typeOf(i);
+        }
+        return types;
+    }
+
+    public int getNumCols() {
+        return types.length;
+    }
+
+    public int typeOf(int col) {
+        return types[col];
+    }
+
+    /* Column access */
+
+    public boolean isNull(int row, int col) {
+        return nulls[col] != null && nulls[col][row];
+    }
+
+    public int getInt(int row, int col) {
+        return ints[col][row];
+    }
+
+    public float getFloat(int row, int col) {
+        return floats[col][row];
+    }
+
+    public String getString(int row, int col) {
+        return dicts[col].get(codes[col][row]);
+    }
+
+    /** Dictionary code of a STRING value, rows with equal strings have equal codes **/
+    public int getCode(int row, int col) {
+        return codes[col][row];
+    }
+
+    public Object getValue(int row, int col) {
+        if (isNull(row, col)) return null;
+        if (types[col] == Attribute.INT) {
+            return ints[col][row];
+        } else if (types[col] == Attribute.REAL) {
+            return floats[col][row];
+        }
+        return getString(row, col);
+    }
+
+    /* Filling the batch: newRow() appends a row, then every attribute is set */
+
+    /**
+     * Appends a row whose values are set afterwards, returns its index
+     **/
+    public int newRow() {
+        checkLive();
+        if (numRows == rows.length) grow();
+        rows[numRows] = null;
+        return numRows++;
+    }
+
+    /**
+     * Doubles the length of the arrays, for callers that fill a batch beyond its capacity
+     **/
+    private void grow() {
+        int length = Math.max(1, 2 * rows.length);
+        for (int col = 0; col < types.length; ++col) {
+            if (ints[col] != null) ints[col] = Arrays.copyOf(ints[col], length);
+            if (floats[col] != null) floats[col] = Arrays.copyOf(floats[col], length);
+            if (codes[col] != null) codes[col] = Arrays.copyOf(codes[col], length);
+            if (nulls[col] != null) nulls[col] = Arrays.copyOf(nulls[col], length);
+        }
+        rows = Arrays.copyOf(rows, length);
+    }
+
+    public void setInt(int row, int col, int value) {
+        ints[col][row] = value;
+        clearNull(row, col);
+    }
+
+    public void setFloat(int row, int col, float value) {
+        floats[col][row] = value;
+        clearNull(row, col);
+    }
+
+    public void setString(int row, int col, String value) {
+        Integer code = dictIndex[col].get(value);
+        if (code == null) {
+            code = dicts[col].size();
+            dicts[col].add(value);
+            dictIndex[col].put(value, code);
+        }
+        codes[col][row] = code;
+        clearNull(row, col);
+    }
+
+    public void setNull(int row, int col) {
+        if (nulls[col] == null) nulls[col] = new boolean[rows.length];
+        nulls[col][row] = true;
+    }
+
+    private void clearNull(int row, int col) {
+        if (nulls[col] != null) nulls[col][row] = false;
+    }
+
+    public void setValue(int row, int col, Object value) {
+        if (value == null) {
+            setNull(row, col);
+        } else if (types[col] == Attribute.INT) {
+            setInt(row, col, (Integer) value);
+        } else if (types[col] == Attribute.REAL) {
+            setFloat(row, col, (Float) value);
+        } else {
+            setString(row, col, (String) value);
+        }
+        rows[row] = null;
+    }
+
+    /**
+     * Appends a copy of a row of a vector batch with the same attribute types
+     **/
+    public void addRow(VectorBatch src, int srcRow) {
+        int row = newRow();
+        for (int i = 0; i < types.length; ++i) {
+            if (src.isNull(srcRow, i)) {
+                setNull(row, i);
+            } else if (types[i] == Attribute.INT) {
+                setInt(row, i, src.ints[i][srcRow]);
+            } else if (types[i] == Attribute.REAL) {
+                setFloat(row, i, src.floats[i][srcRow]);
+            } else {
+                setString(row, i, src.getString(srcRow, i));
+            }
+        }
+        rows[row] = src.rows[srcRow];
+    }
+
+    /**
+     * A batch of the given attributes of this batch. The column arrays are
+     * * shared, not copied, so neither batch may be changed afterwards.
+     * * Releasing the new batch releases this one.
+     **/
+    public VectorBatch project(int[] cols, int numtuple) {
+        int[] newTypes = new int[cols.length];
+        for (int j = 0; j < cols.length; ++j) {
+            newTypes[j] = types[cols[j]];
+        }
+        VectorBatch result = new VectorBatch(newTypes, 0);
+        result.MAX_SIZE = Math.max(numtuple, numRows);
+        for (int j = 0; j < cols.length; ++j) {
+            int i = cols[j];
+            result.ints[j] = ints[i];
+            result.floats[j] = floats[i];
+            result.codes[j] = codes[i];
+            result.dicts[j] = dicts[i];
+            result.dictIndex[j] = dictIndex[i];
+            result.nulls[j] = nulls[i];
+        }
+        result.rows = new Tuple[result.MAX_SIZE];
+        result.base = this;
+        result.numRows = numRows;
+        if (selection != null) result.select(selection, numSelected);
+        return result;
+    }
+
+    /**
+     * Clears match[row] for every stored row whose value of the attribute does not
+     * * satisfy "value exprtype constant". The constant is an Integer, Float
+     * * or String matching the attribute type. Null values never qualify.
+     **/
+    public void filter(int col, int exprtype, Object constant, boolean[] match) {
+        /** first, as the code of a null STRING row may be stale or out of the dictionary **/
+        if (nulls[col] != null) {
+            for (int row = 0; row < numRows; ++row) {
+                if (nulls[col][row]) match[row] = false;
+            }
+        }
+        if (types[col] == Attribute.INT) {
+            int c = (Integer) constant;
+            int[] values = ints[col];
+            for (int row = 0; row < numRows; ++row) {
+                if (match[row] && !ColumnChunk.compare(Integer.compare(values[row], c), exprtype)) match[row] = false;
+            }
+        } else if (types[col] == Attribute.REAL) {
+            float c = (Float) constant;
+            float[] values = floats[col];
+            for (int row = 0; row < numRows; ++row) {
+                if (match[row] && !ColumnChunk.compare(values[row], c, exprtype)) match[row] = false;
+            }
+        } else {
+            /** each distinct string is compared once **/
+            String c = (String) constant;
+            ArrayList<String> dict = dicts[col];
+            boolean[] codeMatch = new boolean[dict.size()];
+            for (int k = 0; k < codeMatch.length; ++k) {
+                codeMatch[k] = ColumnChunk.compare(dict.get(k).compareTo(c), exprtype);
+            }
+            int[] values = codes[col];
+            for (int row = 0; row < numRows; ++row) {
+                if (match[row] && !codeMatch[values[row]]) match[row] = false;
+            }
+        }
+    }
+
+    /* Batch interface, rows are turned into tuples on demand */
+
+    public void add(Tuple t) {
+        checkLive();
+        compact();
+        int row = newRow();
+        for (int i = 0; i < types.length; ++i) {
+            setValue(row, i, t.dataAt(i));
+        }
+        rows[row] = t;
+    }
+
+    public Tuple getRow(int row) {
+        if (row < 0 || row >= numRows) throw new IndexOutOfBoundsException("Index: " + row + ", Size: " + numRows);
+        Tuple t = rows[row];
+        if (t == null) {
+            ArrayList<Object> data = new ArrayList<>(types.length);
+            for (int col = 0; col < types.length; ++col) {
+                data.add(getValue(row, col));
+            }
+            t = new Tuple(data);
+            rows[row] = t;
+        }
+        return t;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public void clear() {
+        Arrays.fill(rows, 0, numRows, null);
+        numRows = 0;
+        selection = null;
+        for (int i = 0; i < types.length; ++i) {
+            if (dicts[i] != null) {
+                dicts[i].clear();
+                dictIndex[i].clear();
+            }
+            if (nulls[i] != null) Arrays.fill(nulls[i], false);
+        }
+    }
+
+    /**
+     * A projected batch gives back the batch whose arrays it shares
+     **/
+    public void release() {
+        super.release();
+        if (base != null) base.release();
+    }
+
+    public int indexOf(Tuple t) {
+        for (int i = 0; i < size(); ++i) {
+            if (get(i).data().equals(t.data())) return i;
+        }
+        return -1;
+    }
+
+    public void set(Tuple t, int i) {
+        int row = position(i);
+        for (int col = 0; col < types.length; ++col) {
+            setValue(row, col, t.dataAt(col));
+        }
+        rows[row] = t;
+    }
+
+    /**
+     * Moves the rows from index from on by one position, up if delta is 1, down if -1
+     **/
+    private void shift(int from, int delta) {
+        int count = numRows - from;
+        for (int col = 0; col < types.length; ++col) {
+            Object array = (ints[col] != null) ? ints[col] : (floats[col] != null) ? floats[col] : codes[col];
+            System.arraycopy(array, from, array, from + delta, count);
+            if (nulls[col] != null) System.arraycopy(nulls[col], from, nulls[col], from + delta, count);
+        }
+        System.arraycopy(rows, from, rows, from + delta, count);
+    }
+
+    public void add(Tuple t, int i) {
+        compact();
+        if (numRows == rows.length) grow();
+        shift(i, 1);
+        numRows++;
+        set(t, i);
+    }
+
+    public void remove(int i) {
+        compact();
+        shift(i + 1, -1);
+        numRows--;
+    }
+}
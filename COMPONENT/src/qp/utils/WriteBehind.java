@@ -0,0 +1,126 @@
+/**
+ * Writes batches behind their producer on a background thread
+ **/
+
+package qp.utils;
+
+import java.io.IOException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A WriteBehind double buffers the writes to spill files: while the flusher
+ * * thread encodes and writes one batch, the producer fills the next one.
+ * * A batch is handed over directly to the flusher, so at most two pages are
+ * * held at a time, and the producer must not change a batch once written.
+ * * One flusher serves all the files of an operator, one file after the other:
+ * * begin() gives it the writer of the next file, and flush() waits until the
+ * * batches of the current one are written, after which that file can be
+ * * closed and read back. close() stops the flusher.
+ **/
+public class WriteBehind {
+
+    static boolean enabled = false;  // Whether spill files are written behind
+
+    /** Set whether spill files are written on a background thread **/
+    public static void setEnabled(boolean flag) {
+        enabled = flag;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Writes one batch to the file
+     **/
+    public interface Writer {
+        void write(Batch batch) throws IOException;
+    }
+
+    static final Batch FLUSH = new Batch(0);  // Handed over once the batches before it are written
+    static final Batch END = new Batch(0);    // Tells the flusher there is nothing more to write
+
+    final SynchronousQueue<Batch> handoff;  // Batch passed from the producer to the flusher
+    final Thread thread;
+    volatile Writer writer;                 // Writer of the file being written
+    volatile Throwable failure;             // Error raised by the writer, if any
+
+    public WriteBehind(String name) {
+        handoff = new SynchronousQueue<>();
+        thread = new Thread(this::run, "write-behind " + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            Batch batch;
+            while ((batch = handoff.take()) != END) {
+                if (batch != FLUSH) writer.write(batch);
+            }
+        } catch (Throwable e) {
+            failure = e;
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure == null) return;
+        if (failure instanceof IOException) throw (IOException) failure;
+        throw new IOException(failure);
+    }
+
+    private void handOver(Batch batch) throws IOException {
+        try {
+            while (!handoff.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("write-behind interrupted");
+        }
+    }
+
+    /**
+     * Writes the batches that follow with the writer of the next file,
+     * * once the batches of the previous one are written
+     **/
+    public void begin(Writer writer) throws IOException {
+        flush();
+        this.writer = writer;
+    }
+
+    /**
+     * Hands the batch to the flusher, waiting while the previous batch is still being written
+     **/
+    public void write(Batch batch) throws IOException {
+        checkFailure();
+        handOver(batch);
+    }
+
+    /**
+     * Waits until every batch handed over has been written.
+     * * The flusher takes the marker only after it has written the batch before it.
+     **/
+    public void flush() throws IOException {
+        checkFailure();
+        if (thread.isAlive()) handOver(FLUSH);
+        checkFailure();
+    }
+
+    /**
+     * Waits until every batch handed over has been written and stops the flusher
+     **/
+    public void close() throws IOException {
+        if (thread.isAlive()) {
+            handOver(END);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("write-behind interrupted");
+            }
+        }
+        checkFailure();
+    }
+}
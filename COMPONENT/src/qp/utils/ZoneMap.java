@@ -0,0 +1,183 @@
+/**
+ * Minimum and maximum value of each attribute on each page of a table file
+ **/
+
+package qp.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * The zone map is gathered by the TableWriter while the pages are filled and
+ * * stored after the last data page of the file. For every page and attribute
+ * * it holds a flag, 0 if all values are null, and otherwise the minimum and
+ * * maximum value: 4 bytes for INT and REAL, a UTF string for STRING.
+ * * A scan with a selection condition can skip every page whose range of
+ * * values cannot satisfy it, without reading the page.
+ **/
+public class ZoneMap {
+
+    final int[] types;                       // Type of each attribute
+    final ArrayList<Object[]> mins;          // Minimum of each attribute, per page
+    final ArrayList<Object[]> maxs;          // Maximum of each attribute, per page
+    Object[] pageMin;                        // Minimum of each attribute on the page being filled
+    Object[] pageMax;                        // Maximum of each attribute on the page being filled
+
+    public ZoneMap(Schema schema) {
+        types = new int[schema.getNumCols()];
+        for (int i = 0; i < types.length; ++i) {
+            types[i] = schema.typeOf(i);
+        }
+        mins = new ArrayList<>();
+        maxs = new ArrayList<>();
+        pageMin = new Object[types.length];
+        pageMax = new Object[types.length];
+    }
+
+    public int getNumPages() {
+        return mins.size();
+    }
+
+    /**
+     * Orders two non-null values of an attribute the same way Select does
+     **/
+    int compare(int col, Object a, Object b) {
+        if (types[col] == Attribute.INT) {
+            return Integer.compare((Integer) a, (Integer) b);
+        } else if (types[col] == Attribute.REAL) {
+            float x = (Float) a;
+            float y = (Float) b;
+            return (x < y) ? -1 : (x > y) ? 1 : 0;
+        }
+        return ((String) a).compareTo((String) b);
+    }
+
+    /**
+     * Widens the ranges of the page being filled with the values of the tuple
+     **/
+    public void add(Tuple tuple) {
+        for (int i = 0; i < types.length; ++i) {
+            Object value = tuple.dataAt(i);
+            if (value == null) continue;
+            if (pageMin[i] == null || compare(i, value, pageMin[i]) < 0) pageMin[i] = value;
+            if (pageMax[i] == null || compare(i, value, pageMax[i]) > 0) pageMax[i] = value;
+        }
+    }
+
+    /**
+     * Records the ranges of the page being filled and starts the next page
+     **/
+    public void endPage() {
+        mins.add(pageMin);
+        maxs.add(pageMax);
+        pageMin = new Object[types.length];
+        pageMax = new Object[types.length];
+    }
+
+    /**
+     * Whether some value of the attribute on the page may satisfy
+     * * "value exprtype constant". Null values never qualify.
+     **/
+    public boolean mayMatch(int page, int col, int exprtype, Object constant) {
+        Object min = mins.get(page)[col];
+        Object max = maxs.get(page)[col];
+        if (min == null) return false;
+        int cmin = compare(col, min, constant);
+        int cmax = compare(col, max, constant);
+        switch (exprtype) {
+            case Condition.LESSTHAN:
+                return cmin < 0;
+            case Condition.LTOE:
+                return cmin <= 0;
+            case Condition.GREATERTHAN:
+                return cmax > 0;
+            case Condition.GTOE:
+                return cmax >= 0;
+            case Condition.EQUAL:
+                return cmin <= 0 && cmax >= 0;
+            case Condition.NOTEQUAL:
+                return cmin != 0 || cmax != 0;
+            default:
+                return true;
+        }
+    }
+
+    private void writeValue(DataOutputStream out, int col, Object value) throws IOException {
+        if (types[col] == Attribute.INT) {
+            out.writeInt((Integer) value);
+        } else if (types[col] == Attribute.REAL) {
+            out.writeFloat((Float) value);
+        } else {
+            out.writeUTF((String) value);
+        }
+    }
+
+    private Object readValue(DataInputStream in, int col) throws IOException {
+        if (types[col] == Attribute.INT) {
+            return in.readInt();
+        } else if (types[col] == Attribute.REAL) {
+            return in.readFloat();
+        }
+        return in.readUTF();
+    }
+
+    /**
+     * Writes the zone map at the given offset of the file, returns the number of bytes written
+     **/
+    public int write(FileChannel channel, long offset) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(mins.size());
+        for (int p = 0; p < mins.size(); ++p) {
+            for (int i = 0; i < types.length; ++i) {
+                Object min = mins.get(p)[i];
+                out.writeBoolean(min != null);
+                if (min != null) {
+                    writeValue(out, i, min);
+                    writeValue(out, i, maxs.get(p)[i]);
+                }
+            }
+        }
+        out.flush();
+        ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+        long pos = offset;
+        while (buf.hasRemaining()) {
+            pos += channel.write(buf, pos);
+        }
+        return bytes.size();
+    }
+
+    /**
+     * Reads the zone map of a table file, null if the file has none
+     **/
+    public static ZoneMap read(FileChannel channel, TableHeader header, Schema schema) throws IOException {
+        long offset = header.getZoneMapOffset();
+        if (offset <= 0 || offset >= channel.size()) return null;
+        ByteBuffer buf = ByteBuffer.allocate((int) (channel.size() - offset));
+        long pos = offset;
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, pos);
+            if (n < 0) break;
+            pos += n;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf.array(), 0, buf.position()));
+        ZoneMap zones = new ZoneMap(schema);
+        int numPages = in.readInt();
+        for (int p = 0; p < numPages; ++p) {
+            for (int i = 0; i < zones.types.length; ++i) {
+                if (in.readBoolean()) {
+                    zones.pageMin[i] = zones.readValue(in, i);
+                    zones.pageMax[i] = zones.readValue(in, i);
+                }
+            }
+            zones.endPage();
+        }
+        return zones;
+    }
+}